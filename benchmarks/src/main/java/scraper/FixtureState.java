@@ -0,0 +1,31 @@
+package scraper;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One fixture page, as html and parsed, shared by the threads of a benchmark.
+ * The parsed document is only read by the benchmarks, never changed.
+ */
+@State(Scope.Benchmark)
+public class FixtureState {
+
+    public static final String BASE_URI = "https://en.example.org/wiki/Graph_database";
+
+    @Param({Fixtures.SMALL, Fixtures.ONE_MB, Fixtures.TEN_MB, Fixtures.DEEP, Fixtures.ANCHORS})
+    public String fixture;
+
+    public String html;
+    public Document doc;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        html = Fixtures.load(fixture);
+        doc = Jsoup.parse(html, BASE_URI);
+    }
+}
@@ -0,0 +1,114 @@
+package scraper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The html pages the benchmarks run on.
+ * <p>
+ * {@code small} is a typical encyclopedia article of about 11 KB. The
+ * {@code 1mb} and {@code 10mb} pages repeat the body of that article until
+ * they reach their size, {@code deep} nests elements a thousand levels deep
+ * and {@code anchors} is a link list of twenty thousand anchors. The
+ * generated pages are the same on every run, so results of different runs
+ * can be compared.
+ */
+public final class Fixtures {
+
+    public static final String SMALL = "small";
+    public static final String ONE_MB = "1mb";
+    public static final String TEN_MB = "10mb";
+    public static final String DEEP = "deep";
+    public static final String ANCHORS = "anchors";
+
+    private static final int DEPTH = 1000;
+    private static final int ANCHOR_COUNT = 20000;
+
+    private Fixtures() {
+    }
+
+    public static String load(String name) {
+        switch (name) {
+            case SMALL:
+                return resource("fixtures/small.html");
+            case ONE_MB:
+                return repeated(1024 * 1024);
+            case TEN_MB:
+                return repeated(10 * 1024 * 1024);
+            case DEEP:
+                return deep(DEPTH);
+            case ANCHORS:
+                return anchors(ANCHOR_COUNT);
+            default:
+                throw new IllegalArgumentException("Unknown fixture '" + name + "'");
+        }
+    }
+
+    // the body of the small page, repeated with unique ids until the page has the given size
+    private static String repeated(int size) {
+        String page = resource("fixtures/small.html");
+        int bodyStart = page.indexOf('>', page.indexOf("<body")) + 1;
+        int bodyEnd = page.lastIndexOf("</body>");
+        String body = page.substring(bodyStart, bodyEnd);
+
+        StringBuilder html = new StringBuilder(size + page.length());
+        html.append(page, 0, bodyStart);
+        for (int copy = 0; html.length() < size; copy++) {
+            html.append(body.replace("id=\"", "id=\"c" + copy + "-"));
+        }
+        html.append(page, bodyEnd, page.length());
+        return html.toString();
+    }
+
+    private static String deep(int depth) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Deep</title></head><body>");
+        for (int level = 0; level < depth; level++) {
+            html.append(level % 2 == 0 ? "<div class=\"level\" data-level=\"" : "<section class=\"level\" data-level=\"")
+                  .append(level).append("\">")
+                  .append("<p>Text of level ").append(level)
+                  .append(" with a <a href=\"/level/").append(level).append("\">link</a></p>");
+        }
+        for (int level = depth - 1; level >= 0; level--) {
+            html.append(level % 2 == 0 ? "</div>" : "</section>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static String anchors(int count) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Anchors</title></head><body><ul class=\"links\">");
+        for (int i = 0; i < count; i++) {
+            html.append("<li><a href=\"");
+            if (i % 3 == 0) {
+                html.append("https://en.example.org/wiki/Page_").append(i).append("\" class=\"external\" rel=\"nofollow\"");
+            } else {
+                html.append("/wiki/Page_").append(i).append('"');
+            }
+            html.append(" data-index=\"").append(i).append("\">Page ").append(i).append("</a>");
+            if (i % 10 == 0) {
+                html.append(" <img src=\"/static/thumb/").append(i).append(".png\" alt=\"\">");
+            }
+            html.append("</li>\n");
+        }
+        return html.append("</ul></body></html>").toString();
+    }
+
+    private static String resource(String name) {
+        try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package scraper;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import scraper.util.CustomHtmlToPlainText;
+
+/**
+ * Plain text formatting of a whole page, wrapped at the default width and
+ * without wrapping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PlainTextBenchmark {
+
+    private final CustomHtmlToPlainText wrapped = new CustomHtmlToPlainText();
+    private final CustomHtmlToPlainText unwrapped = new CustomHtmlToPlainText(0);
+
+    @Benchmark
+    public String wrapped(FixtureState state) {
+        return wrapped.getPlainText(state.doc);
+    }
+
+    @Benchmark
+    public String unwrapped(FixtureState state) {
+        return unwrapped.getPlainText(state.doc);
+    }
+}
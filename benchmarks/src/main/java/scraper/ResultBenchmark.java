@@ -0,0 +1,76 @@
+package scraper;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scraper.result.ElementMap;
+import scraper.result.JsoupElementResult;
+
+/**
+ * Result rows for every anchor of a page: only creating them, and creating
+ * and reading them like Cypher does when the rows are returned, with all
+ * fields and with a projection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ResultBenchmark {
+
+    private static final Set<String> PROJECTION = ElementMap.projection(Arrays.asList("text", "attributes"));
+
+    @State(Scope.Benchmark)
+    public static class Anchors {
+        Elements elements;
+        String url;
+
+        @Setup(Level.Trial)
+        public void setUp(FixtureState state) {
+            elements = state.doc.select("a[href]");
+            url = state.doc.baseUri();
+        }
+    }
+
+    @Benchmark
+    public void construct(Anchors anchors, Blackhole bh) {
+        for (Element element : anchors.elements) {
+            bh.consume(new JsoupElementResult(anchors.url, element, ElementMap.ALL_FIELDS));
+        }
+    }
+
+    @Benchmark
+    public void constructAndRead(Anchors anchors, Blackhole bh) {
+        for (Element element : anchors.elements) {
+            read(new JsoupElementResult(anchors.url, element, ElementMap.ALL_FIELDS), bh);
+        }
+    }
+
+    @Benchmark
+    public void constructAndReadProjected(Anchors anchors, Blackhole bh) {
+        for (Element element : anchors.elements) {
+            read(new JsoupElementResult(anchors.url, element, PROJECTION), bh);
+        }
+    }
+
+    private static void read(JsoupElementResult result, Blackhole bh) {
+        for (Object entry : result.element.entrySet()) {
+            bh.consume(((Map.Entry) entry).getValue());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package scraper;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.jsoup.select.Evaluator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scraper.result.ElementMap;
+import scraper.result.JsoupElementResult;
+import scraper.util.Selectors;
+
+/**
+ * The element procedures on a parsed page: the evaluator of each
+ * getElementsBy* procedure is built and every result row is created and
+ * read, the same way {@code Scraper.getResult} streams them to Cypher.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class SelectBenchmark {
+
+    private static final Set<String> FIELDS = ElementMap.ALL_FIELDS;
+
+    @Benchmark
+    public void select(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.select("article p a[href]"), bh);
+    }
+
+    @Benchmark
+    public void getLinks(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.select("a[href]"), bh);
+    }
+
+    @Benchmark
+    public void getElementById(FixtureState state, Blackhole bh) {
+        read(new JsoupElementResult(state.doc.baseUri(), state.doc.getElementById("footer"), FIELDS), bh);
+    }
+
+    @Benchmark
+    public void getElementsByTag(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byTag("a"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByClass(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byClass("external"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttribute(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttribute("href"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttributeStarting(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttributeStarting("data-"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttributeValue(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttributeValue("rel", "nofollow"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttributeValueContaining(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttributeValueContaining("href", "wiki"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttributeValueEnding(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttributeValueEnding("src", ".png"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttributeValueMatching(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttributeValueMatching("href", "^https?://[a-z]+\\.example\\."), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttributeValueNot(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttributeValueNot("class", "external"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByAttributeValueStarting(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byAttributeValueStarting("href", "/wiki/"), bh);
+    }
+
+    @Benchmark
+    public void getElementsByIndexEquals(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byIndexEquals(2), bh);
+    }
+
+    @Benchmark
+    public void getElementsByIndexGreaterThan(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byIndexGreaterThan(2), bh);
+    }
+
+    @Benchmark
+    public void getElementsByIndexLessThan(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.byIndexLessThan(2), bh);
+    }
+
+    @Benchmark
+    public void getElementsContainingText(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.containingText("graph"), bh);
+    }
+
+    @Benchmark
+    public void getElementsContainingOwnText(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.containingOwnText("graph"), bh);
+    }
+
+    @Benchmark
+    public void getElementsMatchingText(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.matchingText("[Gg]raph (model|database)s?"), bh);
+    }
+
+    @Benchmark
+    public void getElementsMatchingOwnText(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.matchingOwnText("[Gg]raph (model|database)s?"), bh);
+    }
+
+    @Benchmark
+    public void getAllElements(FixtureState state, Blackhole bh) {
+        consume(state, Selectors.allElements(), bh);
+    }
+
+    private static void consume(FixtureState state, Evaluator evaluator, Blackhole bh) {
+        try (Stream<JsoupElementResult> results = Scraper.getResult(state.doc, evaluator, FIELDS)) {
+            results.forEach(result -> read(result, bh));
+        }
+    }
+
+    // the element map is lazy, reading every entry builds what Cypher gets
+    private static void read(JsoupElementResult result, Blackhole bh) {
+        for (Object entry : result.element.entrySet()) {
+            bh.consume(((Map.Entry) entry).getValue());
+        }
+    }
+}
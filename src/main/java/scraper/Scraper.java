@@ -1,30 +1,91 @@
 package scraper;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.stream.Collectors;
+import java.io.StringReader;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
 import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
+import org.neo4j.procedure.TerminationGuard;
+import scraper.archive.ArchivingFetcher;
+import scraper.cache.DocumentCache;
+import scraper.dedup.SimHash;
+import scraper.dedup.SimHashIndex;
+import scraper.graph.Crawler;
+import scraper.graph.GraphBatchWriter;
+import scraper.graph.Refresher;
+import scraper.graph.UrlNodeIndex;
+import scraper.http.BodyReader;
+import scraper.http.FetchOptions;
+import scraper.http.HttpFetcher;
+import scraper.http.HttpResponse;
+import scraper.metrics.Metrics;
+import scraper.pipeline.FetchPipeline;
+import scraper.result.BooleanResult;
+import scraper.result.FetchResult;
+import scraper.result.FingerprintResult;
+import scraper.result.GraphWriteResult;
 import scraper.result.JsoupElementResult;
+import scraper.result.LinkResult;
+import scraper.result.LongResult;
+import scraper.result.MapResult;
+import scraper.result.RefreshResult;
+import scraper.result.SitemapResult;
 import scraper.result.StringResult;
+import scraper.result.TableRowResult;
 import scraper.util.CustomHtmlToPlainText;
+import scraper.util.DaemonThreadFactory;
+import scraper.util.ElementIterator;
+import scraper.util.FieldExtractor;
+import scraper.util.FieldSpec;
+import scraper.util.LinkScanner;
+import scraper.util.MetadataExtractor;
+import scraper.util.ScraperConfig;
+import scraper.util.Selectors;
+import scraper.util.SitemapReader;
+import scraper.util.TableReader;
+import scraper.util.UrlNormalizer;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by Janos Szendi-Varga on 2019. 09. 02.
@@ -32,8 +93,32 @@ import java.util.stream.Stream;
 public class Scraper {
 
     final static int TIMEOUT = 1000;
+    public static final int RETRIES = 0;
+    public static final int RETRY_BACKOFF = 200;
     public static final String USERAGENT = "Mozilla";
     public static final boolean IGNORE_ERRORS = false;
+    public static final long CACHE_MAX_BYTES = 128L * 1024 * 1024;
+    public static final long CACHE_TTL = 10 * 60 * 1000;
+
+    public static final int FETCH_CONCURRENCY = 8;
+    public static final int WRITE_BATCH_SIZE = 1000;
+    public static final int DUPLICATE_DISTANCE = 3;
+    public static final int REFRESH_BUDGET = 100;
+
+    static final Metrics METRICS = new Metrics();
+    static final HttpFetcher HTTP_FETCHER = new HttpFetcher(METRICS);
+    static final ArchivingFetcher ARCHIVE = new ArchivingFetcher(HTTP_FETCHER);
+    static final DocumentCache DOCUMENT_CACHE = new DocumentCache(CACHE_MAX_BYTES, CACHE_TTL);
+    static final Map<String, SimHashIndex> FINGERPRINTS = new ConcurrentHashMap<>();
+
+    static {
+        // a call waiting for a concurrent load did not find the document cached
+        METRICS.cache("documents", DOCUMENT_CACHE::hits, () -> DOCUMENT_CACHE.misses() + DOCUMENT_CACHE.waits());
+        METRICS.cache("selectors", Selectors.queryCache()::hits, Selectors.queryCache()::misses);
+        METRICS.cache("patterns", Selectors.patternCache()::hits, Selectors.patternCache()::misses);
+        METRICS.cache("archive", ARCHIVE::hits, ARCHIVE::misses);
+        METRICS.cache("urlNodes", UrlNodeIndex::totalHits, UrlNodeIndex::totalMisses);
+    }
 
     @Context
     public GraphDatabaseService db;
@@ -44,540 +129,1366 @@ public class Scraper {
     @Context
     public GraphDatabaseAPI dbAPI;
 
+    @Context
+    public TerminationGuard terminationGuard;
 
-    @Procedure
-    @Description("scraper.getDocument(url) YIELD value - " +
-          "Return the content of an url")
-    public Stream<StringResult> getDocument(@Name("url") String url) throws IOException {
-
-        URL urlObject = new URL(url);
-        URLConnection conn = urlObject.openConnection();
-        InputStream is = conn.getInputStream();
 
-        String result = new BufferedReader(new InputStreamReader(is))
-              .lines().collect(Collectors.joining("\n"));
+    @Procedure
+    @Description("scraper.getDocument(url,config) YIELD value, error - " +
+          "Return the content of an url. Config: timeout (ms, default 1000), maxBodySize.")
+    public Stream<StringResult> getDocument(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getDocument", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            FetchOptions options = fetchOptions(conf).ignoreContentType(true);
+            String result;
+            try {
+                result = BodyReader.read(ARCHIVE.fetch(url, options), options.maxBodySize());
+            } catch (IOException e) {
+                return failed(url, e, conf, StringResult::failed);
+            }
 
-        if (result.length() == 0) {
-            return Stream.of(StringResult.EMPTY);
-        } else {
-            return Stream.of(new StringResult(result));
-        }
+            if (result.length() == 0) {
+                return Stream.of(StringResult.EMPTY);
+            } else {
+                return Stream.of(new StringResult(result));
+            }
+        });
     }
 
     @Procedure
-    @Description("scraper.select(url,selector) YIELD element - " +
+    @Description("scraper.select(url,selector,config) YIELD element, error - " +
           "Find elements that match the Selector CSS query, with this element as the starting context.")
     public Stream<JsoupElementResult> select(@Name("url") String url,
-          @Name("selector") String selector) throws IOException {
-        Document doc = getDoc(url);
-
-        return getResult(doc, selector).stream();
+          @Name("selector") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("select", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.select(selector), new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.selectInHtml(html,selector) YIELD element - " +
+    @Description("scraper.selectInHtml(html,selector,config) YIELD element - " +
           "Find elements that match the Selector CSS query, with this element as the starting context.")
     public Stream<JsoupElementResult> selectInHtml(@Name("html") String html,
-          @Name("selector") String selector) {
-        Document doc = Jsoup.parseBodyFragment(html);
+          @Name("selector") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("selectInHtml", () -> {
+            Document doc = parseHtml(html);
 
-        return getResult(doc, selector).stream();
+            return getResult(doc, Selectors.select(selector), new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getLinks(url) YIELD element - " +
-          "Get link elements from an url.")
-    public Stream<JsoupElementResult> getLinks(@Name("url") String url) throws IOException {
-        Document doc = getDoc(url);
+    @Description("scraper.count(url,selector,config) YIELD value, error - " +
+          "Count the elements that match the Selector CSS query, without returning them.")
+    public Stream<LongResult> count(@Name("url") String url, @Name("selector") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("count", () -> withDoc(url, config, LongResult::failed,
+              doc -> Stream.of(new LongResult(count(doc, selector)))));
+    }
+
+    @Procedure
+    @Description("scraper.countInHtml(html,selector) YIELD value - " +
+          "Count the elements that match the Selector CSS query, without returning them.")
+    public Stream<LongResult> countInHtml(@Name("html") String html, @Name("selector") String selector) {
+        return METRICS.track("countInHtml", () -> Stream.of(new LongResult(count(parseHtml(html), selector))));
+    }
+
+    @Procedure
+    @Description("scraper.exists(url,selector,config) YIELD value, error - " +
+          "Whether any element matches the Selector CSS query, stopping at the first match.")
+    public Stream<BooleanResult> exists(@Name("url") String url, @Name("selector") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("exists", () -> withDoc(url, config, BooleanResult::failed,
+              doc -> Stream.of(new BooleanResult(new ElementIterator(doc, Selectors.select(selector)).hasNext()))));
+    }
+
+    @Procedure
+    @Description("scraper.existsInHtml(html,selector) YIELD value - " +
+          "Whether any element matches the Selector CSS query, stopping at the first match.")
+    public Stream<BooleanResult> existsInHtml(@Name("html") String html, @Name("selector") String selector) {
+        return METRICS.track("existsInHtml", () -> Stream.of(new BooleanResult(
+              new ElementIterator(parseHtml(html), Selectors.select(selector)).hasNext())));
+    }
+
+    @Procedure
+    @Description("scraper.distinctValues(url,selector,attr,config) YIELD value, error - " +
+          "The distinct values of an attribute of the matching elements, in document order. " +
+          "Without attr the text of the elements; 'abs:href' style names resolve urls.")
+    public Stream<StringResult> distinctValues(@Name("url") String url, @Name("selector") String selector,
+          @Name(value = "attr", defaultValue = "") String attr,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("distinctValues", () -> withDoc(url, config, StringResult::failed,
+              doc -> distinctValues(doc, selector, attr)));
+    }
+
+    @Procedure
+    @Description("scraper.distinctValuesInHtml(html,selector,attr) YIELD value - " +
+          "The distinct values of an attribute of the matching elements, in document order. " +
+          "Without attr the text of the elements; 'abs:href' style names resolve urls.")
+    public Stream<StringResult> distinctValuesInHtml(@Name("html") String html, @Name("selector") String selector,
+          @Name(value = "attr", defaultValue = "") String attr) {
+        return METRICS.track("distinctValuesInHtml", () -> distinctValues(parseHtml(html), selector, attr));
+    }
 
-        return getResult(doc, "a[href]").stream();
+    @Procedure
+    @Description("scraper.getLinks(url,config) YIELD element, error - " +
+          "Get link elements from an url.")
+    public Stream<JsoupElementResult> getLinks(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getLinks", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.select("a[href]"), new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getLinksInHtml(html) YIELD element - " +
+    @Description("scraper.getLinksInHtml(html,config) YIELD element - " +
           "Get link elements from a html.")
-    public Stream<JsoupElementResult> getLinksInHtml(@Name("html") String html) {
-        Document doc = Jsoup.parseBodyFragment(html);
+    public Stream<JsoupElementResult> getLinksInHtml(@Name("html") String html,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getLinksInHtml", () -> {
+            Document doc = parseHtml(html);
 
-        return getResult(doc, "a[href]").stream();
+            return getResult(doc, Selectors.select("a[href]"), new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getMediaLinks(url) YIELD element - " +
+    @Description("scraper.getMediaLinks(url,config) YIELD element, error - " +
           "Get media link elements.")
-    public Stream<JsoupElementResult> getMediaLinks(@Name("url") String url) throws IOException {
-        Document doc = getDoc(url);
-
-        return getResult(doc, "[src]").stream();
+    public Stream<JsoupElementResult> getMediaLinks(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getMediaLinks", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.select("[src]"), new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getMediaLinksInHtml(html) YIELD element - " +
+    @Description("scraper.getMediaLinksInHtml(html,config) YIELD element - " +
           "Get media link elements.")
-    public Stream<JsoupElementResult> getMediaLinksInHtml(@Name("html") String html) {
-        Document doc = Jsoup.parseBodyFragment(html);
+    public Stream<JsoupElementResult> getMediaLinksInHtml(@Name("html") String html,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getMediaLinksInHtml", () -> {
+            Document doc = parseHtml(html);
 
-        return getResult(doc, "[src]").stream();
+            return getResult(doc, Selectors.select("[src]"), new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getPlainText(url,selector) YIELD value - " +
-          "Get plain text version of a given page.")
-    public Stream<StringResult> getPlainText(@Name("url") String url, @Name(value = "selector", defaultValue = "") String selector) {
-        StringBuilder plainText = new StringBuilder();
-        try {
-            Document doc = getDoc(url);
-            CustomHtmlToPlainText formatter = new CustomHtmlToPlainText();
-            if (!selector.equals("")) {
-                Elements elements = doc.select(selector);
-                for (Element element : elements) {
-                    plainText.append(formatter.getPlainText(element));
-                }
+    @Description("scraper.scanLinks(url,config) YIELD tagName, href, absHref, text, rel, error - " +
+          "Stream the links of an url without building a DOM.")
+    public Stream<LinkResult> scanLinks(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("scanLinks", () -> scanUrl(url, false, new ScraperConfig(config)));
+    }
+
+    @Procedure
+    @Description("scraper.scanLinksInHtml(html) YIELD tagName, href, absHref, text, rel - " +
+          "Stream the links of a html without building a DOM.")
+    public Stream<LinkResult> scanLinksInHtml(@Name("html") String html) {
+        return METRICS.track("scanLinksInHtml", () -> LinkScanner.stream(new StringReader(html), "", false));
+    }
+
+    @Procedure
+    @Description("scraper.scanMediaLinks(url,config) YIELD tagName, href, absHref, text, rel, error - " +
+          "Stream the media links (src attributes) of an url without building a DOM.")
+    public Stream<LinkResult> scanMediaLinks(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("scanMediaLinks", () -> scanUrl(url, true, new ScraperConfig(config)));
+    }
+
+    @Procedure
+    @Description("scraper.scanMediaLinksInHtml(html) YIELD tagName, href, absHref, text, rel - " +
+          "Stream the media links (src attributes) of a html without building a DOM.")
+    public Stream<LinkResult> scanMediaLinksInHtml(@Name("html") String html) {
+        return METRICS.track("scanMediaLinksInHtml", () -> LinkScanner.stream(new StringReader(html), "", true));
+    }
+
+    @Procedure
+    @Description("scraper.sitemap(url,config) YIELD loc, lastmod, changefreq, priority - " +
+          "Stream the entries of a sitemap or sitemap index, gzipped or not, without loading it into memory. " +
+          "The sitemaps of an index are fetched one after the other while the rows are read. " +
+          "Config: followIndex (default true), since (date or epoch millis, older entries are skipped), " +
+          "timeout, maxBodySize (bytes per sitemap, default 0 for no limit).")
+    public Stream<SitemapResult> sitemap(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("sitemap", () -> sitemapRows(url, null, new ScraperConfig(config)));
+    }
+
+    @Procedure
+    @Description("scraper.sitemapInXml(xml,config) YIELD loc, lastmod, changefreq, priority - " +
+          "Stream the entries of a sitemap or sitemap index given as XML. Config: followIndex, since, " +
+          "timeout, maxBodySize.")
+    public Stream<SitemapResult> sitemapInXml(@Name("xml") String xml,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("sitemapInXml", () -> sitemapRows("", xml, new ScraperConfig(config)));
+    }
+
+    @Procedure
+    @Description("scraper.getPlainText(url,selector,config) YIELD value, error - " +
+          "Get plain text version of a given page. " +
+          "Config: width (default 80), wrap (false to keep paragraphs on one line).")
+    public Stream<StringResult> getPlainText(@Name("url") String url, @Name(value = "selector", defaultValue = "") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getPlainText", () -> withDoc(url, config, StringResult::failed, doc -> {
+            String plainText = plainText(doc, selector, formatter(new ScraperConfig(config)));
+
+            if (plainText.length() == 0) {
+                return Stream.of(StringResult.EMPTY);
             } else {
-                plainText.append(formatter.getPlainText(doc));
+                return Stream.of(new StringResult(plainText));
             }
-        } catch (Exception e) {
-            Stream.of(StringResult.EMPTY);
-        }
+        }));
+    }
 
-        if (plainText.length() == 0) {
-            return Stream.of(StringResult.EMPTY);
-        } else {
-            return Stream.of(new StringResult(plainText.toString()));
-        }
+    @Procedure
+    @Description("scraper.getPlainTextInHtml(url,selector,config) YIELD value - " +
+          "Get plain text version of a given page. " +
+          "Config: width (default 80), wrap (false to keep paragraphs on one line).")
+    public Stream<StringResult> getPlainTextInHtml(@Name("html") String html, @Name(value = "selector", defaultValue = "") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getPlainTextInHtml", () -> {
+            Document doc = parseHtml(html);
+            String plainText = plainText(doc, selector, formatter(new ScraperConfig(config)));
+            if (plainText.length() == 0) {
+                return Stream.of(StringResult.EMPTY);
+            } else {
+                return Stream.of(new StringResult(plainText));
+            }
+        });
+    }
 
+    @Procedure
+    @Description("scraper.fingerprint(url,selector,config) YIELD fingerprint, duplicateOf, distance, error - " +
+          "SimHash fingerprint of the plain text of a page. With an index name, the closest page of " +
+          "the index within distance is returned as duplicateOf, otherwise the page is added to it. " +
+          "Config: index, distance (bits, default 3, at most 15), add (default true), key (default the url).")
+    public Stream<FingerprintResult> fingerprint(@Name("url") String url,
+          @Name(value = "selector", defaultValue = "") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("fingerprint", () -> withDoc(url, config, FingerprintResult::failed, doc -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            return Stream.of(fingerprint(doc, selector, conf.getString("key", url), conf));
+        }));
     }
 
     @Procedure
-    @Description("scraper.getPlainTextInHtml(url,selector) YIELD value - " +
-          "Get plain text version of a given page.")
-    public Stream<StringResult> getPlainTextInHtml(@Name("html") String html, @Name(value = "selector", defaultValue = "") String selector) {
-        StringBuilder plainText = new StringBuilder();
-        Document doc = Jsoup.parseBodyFragment(html);
-        CustomHtmlToPlainText formatter = new CustomHtmlToPlainText();
-        if (!selector.equals("")) {
-            Elements elements = doc.select(selector);
-            for (Element element : elements) {
-                plainText.append(formatter.getPlainText(element));
-            }
-        } else {
-            plainText.append(formatter.getPlainText(doc));
-        }
-        if (plainText.length() == 0) {
-            return Stream.of(StringResult.EMPTY);
-        } else {
-            return Stream.of(new StringResult(plainText.toString()));
-        }
+    @Description("scraper.fingerprintInHtml(html,selector,config) YIELD fingerprint, duplicateOf, distance - " +
+          "SimHash fingerprint of the plain text of a html. With an index name, the closest html of " +
+          "the index within distance is returned as duplicateOf, otherwise the html is added to it. " +
+          "Config: index, distance (bits, default 3, at most 15), add (default true), " +
+          "key (default the fingerprint in hex).")
+    public Stream<FingerprintResult> fingerprintInHtml(@Name("html") String html,
+          @Name(value = "selector", defaultValue = "") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("fingerprintInHtml", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            Document doc = parseHtml(html);
+            return Stream.of(fingerprint(doc, selector, conf.getString("key", null), conf));
+        });
+    }
+
+    @Procedure
+    @Description("scraper.clearFingerprints(index) - " +
+          "Drop a fingerprint index and every fingerprint in it.")
+    public void clearFingerprints(@Name("index") String index) {
+        FINGERPRINTS.remove(index);
     }
 
     @Procedure
-    @Description("scraper.getElementById(url,id) YIELD element - "
+    @Description("scraper.getElementById(url,id,config) YIELD element, error - "
           + "Find an element by ID, including or under this element.")
-    public Stream<JsoupElementResult> getElementById(@Name("url") String url, @Name("id") String id)
+    public Stream<JsoupElementResult> getElementById(@Name("url") String url, @Name("id") String id,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config)
           throws IOException {
-        Document doc = getDoc(url);
-        Element element = doc.getElementById(id);
-        return Stream.of(new JsoupElementResult(url, element));
+        return METRICS.track("getElementById", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            Element element = doc.getElementById(id);
+            return Stream.of(new JsoupElementResult(url, element,
+                  new ScraperConfig(config).getFields()));
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementByIdInHtml(html,id) YIELD element - " +
+    @Description("scraper.getElementByIdInHtml(html,id,config) YIELD element - " +
           "Find an element by ID, including or under this element.")
-    public Stream<JsoupElementResult> getElementByIdInHtml(@Name("html") String html, @Name("id") String id) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Element element = doc.getElementById(id);
-        return Stream.of(new JsoupElementResult(null, element));
+    public Stream<JsoupElementResult> getElementByIdInHtml(@Name("html") String html, @Name("id") String id,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementByIdInHtml", () -> {
+            Document doc = parseHtml(html);
+            Element element = doc.getElementById(id);
+            return Stream.of(new JsoupElementResult(null, element,
+                  new ScraperConfig(config).getFields()));
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByTag(url,tag) YIELD element - "
+    @Description("scraper.getElementsByTag(url,tag,config) YIELD element, error - "
           + "Finds elements, including and recursively under this element, with the specified tag name.")
-    public Stream<JsoupElementResult> getElementsByTag(@Name("url") String url, @Name("tag") String tag) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByTag(tag);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByTag(@Name("url") String url, @Name("tag") String tag,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByTag", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byTag(tag),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByTagInHtml(html,tag) YIELD element - "
+    @Description("scraper.getElementsByTagInHtml(html,tag,config) YIELD element - "
           + "Finds elements, including and recursively under this element, with the specified tag name.")
-    public Stream<JsoupElementResult> getElementsByTagInHtml(@Name("html") String html, @Name("tag") String tag) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByTag(tag);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByTagInHtml(@Name("html") String html, @Name("tag") String tag,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByTagInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byTag(tag),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByClass(url,className) YIELD element - "
+    @Description("scraper.getElementsByClass(url,className,config) YIELD element, error - "
           + "Find elements that have this class, including or under this element.")
     public Stream<JsoupElementResult> getElementsByClass(@Name("url") String url,
-          @Name("className") String className) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByClass(className);
-
-        return getResult(doc, elements).stream();
+          @Name("className") String className,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByClass", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byClass(className),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByClassInHtml(html,className) YIELD element - " +
+    @Description("scraper.getElementsByClassInHtml(html,className,config) YIELD element - " +
           "Find elements that have this class, including or under this element.")
-    public Stream<JsoupElementResult> getElementsByClassInHtml(@Name("html") String html, @Name("className") String className) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByClass(className);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByClassInHtml(@Name("html") String html, @Name("className") String className,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByClassInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byClass(className),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttribute(url,key) YIELD element - "
+    @Description("scraper.getElementsByAttribute(url,key,config) YIELD element, error - "
           + "Find elements that have a named attribute set.")
-    public Stream<JsoupElementResult> getElementsByAttribute(@Name("url") String url, @Name("key") String key) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByAttribute(key);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttribute(@Name("url") String url, @Name("key") String key,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttribute", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttribute(key),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeInHtml(html,attribute) YIELD element - " +
+    @Description("scraper.getElementsByAttributeInHtml(html,attribute,config) YIELD element - " +
           "Find elements that have a named attribute set.")
-    public Stream<JsoupElementResult> getElementsByAttributeInHtml(@Name("html") String html, @Name("key") String key) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttribute(key);
-
-        return getResult(doc, elements).stream();
-
+    public Stream<JsoupElementResult> getElementsByAttributeInHtml(@Name("html") String html, @Name("key") String key,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttribute(key),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeStarting(url,keyPrefix) YIELD element - "
+    @Description("scraper.getElementsByAttributeStarting(url,keyPrefix,config) YIELD element, error - "
           + "Find elements that have an attribute name starting with the supplied prefix. Use data- to find elements that have HTML5 datasets.")
-    public Stream<JsoupElementResult> getElementsByAttributeStarting(@Name("url") String url, @Name("keyPrefix") String keyPrefix) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByAttributeStarting(keyPrefix);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeStarting(@Name("url") String url, @Name("keyPrefix") String keyPrefix,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttributeStarting",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttributeStarting(keyPrefix),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeStartingInHtml(html,keyPrefix) YIELD element - " +
+    @Description("scraper.getElementsByAttributeStartingInHtml(html,keyPrefix,config) YIELD element - " +
           "Find elements that have an attribute name starting with the supplied prefix. Use data- to find elements that have HTML5 datasets.")
-    public Stream<JsoupElementResult> getElementsByAttributeStartingInHtml(@Name("html") String html, @Name("keyPrefix") String keyPrefix) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttributeStarting(keyPrefix);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeStartingInHtml(@Name("html") String html, @Name("keyPrefix") String keyPrefix,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeStartingInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttributeStarting(keyPrefix),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeValue(url,key,value) YIELD element - "
+    @Description("scraper.getElementsByAttributeValue(url,key,value,config) YIELD element, error - "
           + "Find elements that have an attribute with the specific value.")
-    public Stream<JsoupElementResult> getElementsByAttributeValue(@Name("url") String url, @Name("key") String key, @Name("value") String value) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByAttributeValue(key, value);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValue(@Name("url") String url, @Name("key") String key, @Name("value") String value,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttributeValue",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttributeValue(key, value),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeValueInHtml(html,key,value) YIELD element - "
+    @Description("scraper.getElementsByAttributeValueInHtml(html,key,value,config) YIELD element - "
           + "Find elements that have an attribute with the specific value.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueInHtml(@Name("html") String html, @Name("key") String key, @Name("value") String value) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttributeValue(key, value);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueInHtml(@Name("html") String html, @Name("key") String key, @Name("value") String value,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeValueInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttributeValue(key, value),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeValueContaining(url,key,match) YIELD element - "
+    @Description("scraper.getElementsByAttributeValueContaining(url,key,match,config) YIELD element, error - "
           + "Find elements that have attributes whose value contains the match string.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueContaining(@Name("url") String url, @Name("key") String key, @Name("match") String match) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByAttributeValueContaining(key, match);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueContaining(@Name("url") String url, @Name("key") String key, @Name("match") String match,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttributeValueContaining",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttributeValueContaining(key, match),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
     @Description(
-          "scraper.getElementsByAttributeValueContainingInHtml(html,key,match) YIELD element - "
+          "scraper.getElementsByAttributeValueContainingInHtml(html,key,match,config) YIELD element - "
                 + "Find elements that have attributes whose value contains the match string.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueContainingInHtml(@Name("html") String html, @Name("key") String key, @Name("match") String match) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttributeValueContaining(key, match);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueContainingInHtml(@Name("html") String html, @Name("key") String key, @Name("match") String match,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeValueContainingInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttributeValueContaining(key, match),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
     @Description(
-          "scraper.getElementsByAttributeValueEnding(url,key,valueSuffix) YIELD element - "
+          "scraper.getElementsByAttributeValueEnding(url,key,valueSuffix,config) YIELD element, error - "
                 + "Find elements that have attributes that end with the value suffix.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueEnding(@Name("url") String url, @Name("key") String key, @Name("valueSuffix") String valueSuffix) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByAttributeValueEnding(key, valueSuffix);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueEnding(@Name("url") String url, @Name("key") String key, @Name("valueSuffix") String valueSuffix,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttributeValueEnding",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttributeValueEnding(key, valueSuffix),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
     @Description(
-          "scraper.getElementsByAttributeValueEndingInHtml(html,key,valueSuffix) YIELD element - "
+          "scraper.getElementsByAttributeValueEndingInHtml(html,key,valueSuffix,config) YIELD element - "
                 + "Find elements that have attributes that end with the value suffix.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueEndingInHtml(@Name("html") String html, @Name("key") String key, @Name("valueSuffix") String valueSuffix) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttributeValueEnding(key, valueSuffix);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueEndingInHtml(@Name("html") String html, @Name("key") String key, @Name("valueSuffix") String valueSuffix,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeValueEndingInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttributeValueEnding(key, valueSuffix),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeValueMatching(url,key,regex) YIELD element - "
+    @Description("scraper.getElementsByAttributeValueMatching(url,key,regex,config) YIELD element, error - "
           + "Find elements that have attributes whose values match the supplied regular expression.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueMatching(@Name("url") String url, @Name("key") String key, @Name("regex") String regex) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByAttributeValueMatching(key, regex);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueMatching(@Name("url") String url, @Name("key") String key, @Name("regex") String regex,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttributeValueMatching",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttributeValueMatching(key, regex),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
     @Description(
-          "scraper.getElementsByAttributeValueMatchingInHtml(html,key,regex) YIELD element - "
+          "scraper.getElementsByAttributeValueMatchingInHtml(html,key,regex,config) YIELD element - "
                 + "Find elements that have attributes whose values match the supplied regular expression.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueMatchingInHtml(@Name("html") String html, @Name("key") String key, @Name("regex") String regex) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttributeValueMatching(key, regex);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueMatchingInHtml(@Name("html") String html, @Name("key") String key, @Name("regex") String regex,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeValueMatchingInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttributeValueMatching(key, regex),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeValueNot(url,key,value) YIELD element - "
+    @Description("scraper.getElementsByAttributeValueNot(url,key,value,config) YIELD element, error - "
           + "Find elements that either do not have this attribute, or have it with a different value.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueNot(@Name("url") String url, @Name("key") String key, @Name("value") String value) throws IOException {
-        Document doc = getDoc(url);
-
-        Elements elements = doc.getElementsByAttributeValueNot(key, value);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueNot(@Name("url") String url, @Name("key") String key, @Name("value") String value,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttributeValueNot",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttributeValueNot(key, value),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByAttributeValueNotInHtml(html,key,value) YIELD element - "
+    @Description("scraper.getElementsByAttributeValueNotInHtml(html,key,value,config) YIELD element - "
           + "Find elements that either do not have this attribute, or have it with a different value.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueNotInHtml(@Name("html") String html, @Name("key") String key, @Name("value") String value) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttributeValueNot(key, value);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueNotInHtml(@Name("html") String html, @Name("key") String key, @Name("value") String value,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeValueNotInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttributeValueNot(key, value),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
     @Description(
-          "scraper.getElementsByAttributeValueStarting(url,key,valuePrefix) YIELD element - "
+          "scraper.getElementsByAttributeValueStarting(url,key,valuePrefix,config) YIELD element, error - "
                 + "Find elements that have attributes that start with the value prefix.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueStarting(@Name("url") String url, @Name("key") String key, @Name("valuePrefix") String valuePrefix) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByAttributeValueStarting(key, valuePrefix);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueStarting(@Name("url") String url, @Name("key") String key, @Name("valuePrefix") String valuePrefix,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByAttributeValueStarting",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byAttributeValueStarting(key, valuePrefix),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
     @Description(
-          "scraper.getElementsByAttributeValueStartingInHtml(html,key,valuePrefix) YIELD element - "
+          "scraper.getElementsByAttributeValueStartingInHtml(html,key,valuePrefix,config) YIELD element - "
                 + "Find elements that have attributes that start with the value prefix.")
-    public Stream<JsoupElementResult> getElementsByAttributeValueStartingInHtml(@Name("html") String html, @Name("key") String key, @Name("valuePrefix") String valuePrefix) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByAttributeValueStarting(key, valuePrefix);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByAttributeValueStartingInHtml(@Name("html") String html, @Name("key") String key, @Name("valuePrefix") String valuePrefix,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByAttributeValueStartingInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byAttributeValueStarting(key, valuePrefix),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByIndexEquals(url,index) YIELD element - "
+    @Description("scraper.getElementsByIndexEquals(url,index,config) YIELD element, error - "
           + "Find elements whose sibling index is equal to the supplied index.")
-    public Stream<JsoupElementResult> getElementsByIndexEquals(@Name("url") String url, @Name("index") String index) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByIndexEquals(Integer.parseInt(index));
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByIndexEquals(@Name("url") String url, @Name("index") String index,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByIndexEquals",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byIndexEquals(Integer.parseInt(index)),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByIndexEqualsInHtml(html,index) YIELD element - "
+    @Description("scraper.getElementsByIndexEqualsInHtml(html,index,config) YIELD element - "
           + "Find elements whose sibling index is equal to the supplied index.")
-    public Stream<JsoupElementResult> getElementsByIndexEqualsInHtml(@Name("html") String html, @Name("index") String index) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByIndexEquals(Integer.parseInt(index));
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByIndexEqualsInHtml(@Name("html") String html, @Name("index") String index,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByIndexEqualsInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byIndexEquals(Integer.parseInt(index)),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByIndexGreaterThan(url,index) YIELD element - "
+    @Description("scraper.getElementsByIndexGreaterThan(url,index,config) YIELD element, error - "
           + "Find elements whose sibling index is greater than the supplied index.")
-    public Stream<JsoupElementResult> getElementsByIndexGreaterThan(@Name("url") String url, @Name("index") String index) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByIndexGreaterThan(Integer.parseInt(index));
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByIndexGreaterThan(@Name("url") String url, @Name("index") String index,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByIndexGreaterThan",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byIndexGreaterThan(Integer.parseInt(index)),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByIndexGreaterThanInHtml(html,index) YIELD element - "
+    @Description("scraper.getElementsByIndexGreaterThanInHtml(html,index,config) YIELD element - "
           + "Find elements whose sibling index is greater than the supplied index.")
-    public Stream<JsoupElementResult> getElementsByIndexGreaterThanInHtml(@Name("html") String html, @Name("index") String index) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByIndexGreaterThan(Integer.parseInt(index));
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByIndexGreaterThanInHtml(@Name("html") String html, @Name("index") String index,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByIndexGreaterThanInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byIndexGreaterThan(Integer.parseInt(index)),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsByIndexLessThan(url,index) YIELD element - "
+    @Description("scraper.getElementsByIndexLessThan(url,index,config) YIELD element, error - "
           + "Find elements whose sibling index is less than the supplied index.")
-    public Stream<JsoupElementResult> getElementsByIndexLessThan(@Name("url") String url, @Name("index") String index) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsByIndexLessThan(Integer.parseInt(index));
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByIndexLessThan(@Name("url") String url, @Name("index") String index,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsByIndexLessThan",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.byIndexLessThan(Integer.parseInt(index)),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsByIndexLessThanInHtml(html,index) YIELD element - "
+    @Description("scraper.getElementsByIndexLessThanInHtml(html,index,config) YIELD element - "
           + "Find elements whose sibling index is less than the supplied index.")
-    public Stream<JsoupElementResult> getElementsByIndexLessThanInHtml(@Name("html") String html, @Name("index") String index) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsByIndexLessThan(Integer.parseInt(index));
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsByIndexLessThanInHtml(@Name("html") String html, @Name("index") String index,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsByIndexLessThanInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.byIndexLessThan(Integer.parseInt(index)),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsContainingOwnText(url,searchText) YIELD element - "
+    @Description("scraper.getElementsContainingOwnText(url,searchText,config) YIELD element, error - "
           + "Find elements that directly contain the specified string.")
-    public Stream<JsoupElementResult> getElementsContainingOwnText(@Name("url") String url, @Name("searchText") String searchText) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsContainingOwnText(searchText);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsContainingOwnText(@Name("url") String url, @Name("searchText") String searchText,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsContainingOwnText",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.containingOwnText(searchText),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsContainingOwnTextInHtml(html,searchText) YIELD element - "
+    @Description("scraper.getElementsContainingOwnTextInHtml(html,searchText,config) YIELD element - "
           + "Find elements that directly contain the specified string.")
-    public Stream<JsoupElementResult> getElementsContainingOwnTextInHtml(@Name("html") String html, @Name("searchText") String searchText) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsContainingOwnText(searchText);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsContainingOwnTextInHtml(@Name("html") String html, @Name("searchText") String searchText,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsContainingOwnTextInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.containingOwnText(searchText),
+                  new ScraperConfig(config).getFields());
+        });
     }
 
     @Procedure
-    @Description("scraper.getElementsContainingText(url,searchText) YIELD element - "
+    @Description("scraper.getElementsContainingText(url,searchText,config) YIELD element, error - "
           + "Find elements that contain the specified string.")
-    public Stream<JsoupElementResult> getElementsContainingText(@Name("url") String url, @Name("searchText") String searchText) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsContainingText(searchText);
-
-        return getResult(doc, elements).stream();
+    public Stream<JsoupElementResult> getElementsContainingText(@Name("url") String url, @Name("searchText") String searchText,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsContainingText",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.containingText(searchText),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsContainingTextInHtml(html,searchText) YIELD element - "
+    @Description("scraper.getElementsContainingTextInHtml(html,searchText,config) YIELD element - "
           + "Find elements that contain the specified string.")
-    public Stream<JsoupElementResult> getElementsContainingTextInHtml(@Name("html") String html, @Name("searchText") String searchText) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsContainingText(searchText);
+    public Stream<JsoupElementResult> getElementsContainingTextInHtml(@Name("html") String html, @Name("searchText") String searchText,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsContainingTextInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.containingText(searchText),
+                  new ScraperConfig(config).getFields());
+        });
+    }
 
-        return getResult(doc, elements).stream();
+    @Procedure
+    @Description("scraper.getElementsMatchingOwnText(url,regex,config) YIELD element, error - "
+          + "Find elements whose text matches the supplied regular expression.")
+    public Stream<JsoupElementResult> getElementsMatchingOwnText(@Name("url") String url, @Name("regex") String regex,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsMatchingOwnText",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.matchingOwnText(regex),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsMatchingOwnText(url,regex) YIELD element - "
+    @Description("scraper.getElementsMatchingOwnTextInHtml(html,pattern,config) YIELD element - "
           + "Find elements whose text matches the supplied regular expression.")
-    public Stream<JsoupElementResult> getElementsMatchingOwnText(@Name("url") String url, @Name("regex") String regex) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsMatchingOwnText(regex);
+    public Stream<JsoupElementResult> getElementsMatchingOwnTextInHtml(@Name("html") String html, @Name("regex") String regex,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsMatchingOwnTextInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.matchingOwnText(regex),
+                  new ScraperConfig(config).getFields());
+        });
+    }
 
-        return getResult(doc, elements).stream();
+    @Procedure
+    @Description("scraper.getElementsMatchingText(url,pattern,config) YIELD element, error - "
+          + "Find elements whose text matches the supplied regular expression.")
+    public Stream<JsoupElementResult> getElementsMatchingText(@Name("url") String url, @Name("regex") String regex,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getElementsMatchingText",
+              () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.matchingText(regex),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsMatchingOwnTextInHtml(html,pattern) YIELD element - "
+    @Description("scraper.getElementsContainingTextInHtml(html,pattern,config) YIELD element - "
           + "Find elements whose text matches the supplied regular expression.")
-    public Stream<JsoupElementResult> getElementsMatchingOwnTextInHtml(@Name("html") String html, @Name("regex") String regex) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsMatchingOwnText(regex);
+    public Stream<JsoupElementResult> getElementsMatchingTextInHtml(@Name("html") String html, @Name("regex") String regex,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getElementsMatchingTextInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.matchingText(regex),
+                  new ScraperConfig(config).getFields());
+        });
+    }
 
-        return getResult(doc, elements).stream();
+    @Procedure
+    @Description("scraper.getAllElements(url,config) YIELD element, error - "
+          + "Find all elements under this element (including self, and children of children).")
+    public Stream<JsoupElementResult> getAllElements(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("getAllElements", () -> withDoc(url, config, JsoupElementResult::failed, doc -> {
+            return getResult(doc, Selectors.allElements(),
+                  new ScraperConfig(config).getFields());
+        }));
     }
 
     @Procedure
-    @Description("scraper.getElementsMatchingText(url,pattern) YIELD element - "
-          + "Find elements whose text matches the supplied regular expression.")
-    public Stream<JsoupElementResult> getElementsMatchingText(@Name("url") String url, @Name("regex") String regex) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getElementsMatchingText(regex);
+    @Description("scraper.getAllElementsInHtml(html,config) YIELD element - "
+          + "Find all elements under this element (including self, and children of children).")
+    public Stream<JsoupElementResult> getAllElementsInHtml(@Name("html") String html,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("getAllElementsInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return getResult(doc, Selectors.allElements(),
+                  new ScraperConfig(config).getFields());
+        });
+    }
+
+    private Stream<MapResult> extractRows(Document doc, String rowSelector, Map<String, Object> fields) {
+        Map<String, FieldSpec> specs = FieldSpec.compile(fields);
+        return ElementIterator.stream(doc, Selectors.select(rowSelector))
+              .map(row -> new MapResult(FieldSpec.extract(row, specs)));
+    }
 
-        return getResult(doc, elements).stream();
+    // matches are found and converted one at a time, as rows are pulled
+    // package-private for the benchmarks
+    static Stream<JsoupElementResult> getResult(Document doc, Evaluator evaluator, Set<String> fields) {
+        String url = doc.baseUri();
+        return ElementIterator.stream(doc, evaluator)
+              .map(element -> new JsoupElementResult(url, element, fields));
     }
 
     @Procedure
-    @Description("scraper.getElementsContainingTextInHtml(html,pattern) YIELD element - "
-          + "Find elements whose text matches the supplied regular expression.")
-    public Stream<JsoupElementResult> getElementsMatchingTextInHtml(@Name("html") String html, @Name("regex") String regex) {
-        Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getElementsMatchingText(regex);
+    @Description("scraper.extract(url,rowSelector,fields,config) YIELD value, error - " +
+          "Find the rows matching rowSelector and read all fields relative to each row in one pass. " +
+          "Fields: {name: 'selector' for the text of the first match, 'selector@attribute' " +
+          "for an attribute, '@attribute' for an attribute of the row}.")
+    public Stream<MapResult> extract(@Name("url") String url, @Name("rowSelector") String rowSelector,
+          @Name("fields") Map<String, Object> fields,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("extract", () -> withDoc(url, config, MapResult::failed, doc -> {
+            return extractRows(doc, rowSelector, fields);
+        }));
+    }
 
-        return getResult(doc, elements).stream();
+    @Procedure
+    @Description("scraper.extractInHtml(html,rowSelector,fields) YIELD value - " +
+          "Find the rows matching rowSelector and read all fields relative to each row in one pass. " +
+          "Fields: {name: 'selector' for the text of the first match, 'selector@attribute' " +
+          "for an attribute, '@attribute' for an attribute of the row}.")
+    public Stream<MapResult> extractInHtml(@Name("html") String html, @Name("rowSelector") String rowSelector,
+          @Name("fields") Map<String, Object> fields) {
+        return METRICS.track("extractInHtml", () -> {
+            Document doc = parseHtml(html);
+
+            return extractRows(doc, rowSelector, fields);
+        });
     }
 
     @Procedure
-    @Description("scraper.getAllElements(url) YIELD element - "
-          + "Find all elements under this element (including self, and children of children).")
-    public Stream<JsoupElementResult> getAllElements(@Name("url") String url) throws IOException {
-        Document doc = getDoc(url);
-        Elements elements = doc.getAllElements();
+    @Description("scraper.tables(url,selector,config) YIELD table, row, value, error - " +
+          "Read the rows of the matching tables as maps keyed by the headers of their columns, walking " +
+          "each table once. Cells spanning several columns or rows fill each of them; the headers come " +
+          "from the thead and leading rows of th cells, stacked headers joined with ' / '.")
+    public Stream<TableRowResult> tables(@Name("url") String url,
+          @Name(value = "selector", defaultValue = "table") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("tables", () -> withDoc(url, config, TableRowResult::failed,
+              doc -> TableReader.stream(doc, Selectors.select(selector))));
+    }
 
-        return getResult(doc, elements).stream();
+    @Procedure
+    @Description("scraper.tablesInHtml(html,selector) YIELD table, row, value - " +
+          "Read the rows of the matching tables as maps keyed by the headers of their columns, walking " +
+          "each table once. Cells spanning several columns or rows fill each of them; the headers come " +
+          "from the thead and leading rows of th cells, stacked headers joined with ' / '.")
+    public Stream<TableRowResult> tablesInHtml(@Name("html") String html,
+          @Name(value = "selector", defaultValue = "table") String selector) {
+        return METRICS.track("tablesInHtml", () -> TableReader.stream(parseHtml(html), Selectors.select(selector)));
     }
 
     @Procedure
-    @Description("scraper.getAllElementsInHtml(html) YIELD element - "
-          + "Find all elements under this element (including self, and children of children).")
-    public Stream<JsoupElementResult> getAllElementsInHtml(@Name("html") String html) {
+    @Description("scraper.metadata(url,config) YIELD value, error - " +
+          "Collect the metadata of a page in one walk: title, description, canonical, openGraph " +
+          "(og:, article: and other prefixed meta properties), twitter (card properties), jsonLd " +
+          "(parsed ld+json scripts) and microdata (items with their @type, @id and properties).")
+    public Stream<MapResult> metadata(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("metadata", () -> withDoc(url, config, MapResult::failed,
+              doc -> Stream.of(new MapResult(MetadataExtractor.extract(doc)))));
+    }
+
+    @Procedure
+    @Description("scraper.metadataInHtml(html) YIELD value - " +
+          "Collect the metadata of a html in one walk: title, description, canonical, openGraph " +
+          "(og:, article: and other prefixed meta properties), twitter (card properties), jsonLd " +
+          "(parsed ld+json scripts) and microdata (items with their @type, @id and properties).")
+    public Stream<MapResult> metadataInHtml(@Name("html") String html) {
+        return METRICS.track("metadataInHtml",
+              () -> Stream.of(new MapResult(MetadataExtractor.extract(parseHtml(html)))));
+    }
+
+    @Procedure
+    @Description("scraper.fetchAll(urls,config) YIELD url, status, value, element, error - " +
+          "Fetch a list of urls in parallel and return rows as each page completes, with the http status, " +
+          "null for a page served from the cache. Config: concurrency, timeout, selector, output ('text', 'html' or 'elements'), fields, width, wrap.")
+    public Stream<FetchResult> fetchAll(@Name("urls") List<String> urls,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("fetchAll", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            int concurrency = (int) Math.max(1, conf.getLong("concurrency", FETCH_CONCURRENCY));
+            String selector = conf.getString("selector", "");
+            String output = conf.getString("output", "text");
+            Set<String> fields = conf.getFields();
+            CustomHtmlToPlainText formatter = formatter(conf);
+            if (!Arrays.asList("text", "html", "elements").contains(output)) {
+                throw new IllegalArgumentException("Unknown output '" + output +
+                      "', use 'text', 'html' or 'elements'");
+            }
+            if (output.equals("elements") && selector.equals("")) {
+                throw new IllegalArgumentException("The 'elements' output needs a selector");
+            }
+            if (urls.isEmpty()) {
+                return Stream.empty();
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, urls.size()),
+                  new DaemonThreadFactory("scraper-fetch"));
+            CompletionService<List<FetchResult>> completion = new ExecutorCompletionService<>(pool);
+            FetchOptions options = fetchOptions(conf);
+            for (String url : urls) {
+                completion.submit(() -> fetchRows(url, options, selector, output, fields, formatter));
+            }
+            pool.shutdown();
+
+            Iterator<List<FetchResult>> completed = new Iterator<List<FetchResult>>() {
+                private int remaining = urls.size();
+
+                public boolean hasNext() {
+                    return remaining > 0;
+                }
+
+                public List<FetchResult> next() {
+                    remaining--;
+                    try {
+                        return completion.take().get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Interrupted while fetching urls", e);
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(completed,
+                  Spliterator.ORDERED), false)
+                  .flatMap(List::stream)
+                  .onClose(pool::shutdownNow);
+        });
+    }
+
+    @Procedure
+    @Description("scraper.selectAll(urls,selector,config) YIELD element, error - " +
+          "Find elements that match the Selector CSS query in a list of urls, fetching the next pages " +
+          "while the previous ones are parsed. A page that fails gives one row with its url and error. " +
+          "Config: concurrency, window (pages fetched ahead of the results), timeout, maxBodySize, " +
+          "retries, backoff, failOnError, fields.")
+    public Stream<JsoupElementResult> selectAll(@Name("urls") List<String> urls,
+          @Name("selector") String selector,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("selectAll", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            int concurrency = (int) Math.max(1, conf.getLong("concurrency", FETCH_CONCURRENCY));
+            int window = (int) Math.max(1, conf.getLong("window", 2L * concurrency));
+            Evaluator evaluator = Selectors.select(selector);
+            Set<String> fields = conf.getFields();
+            FetchOptions options = fetchOptions(conf);
+            boolean failOnError = conf.getBoolean("failOnError", false);
+            if (urls.isEmpty()) {
+                return Stream.empty();
+            }
+
+            Log target = log;
+            FetchPipeline<HttpResponse, JsoupElementResult> pipeline = new FetchPipeline<>(urls,
+                  url -> BodyReader.buffer(ARCHIVE.fetch(url, options), options.maxBodySize()),
+                  (url, response) -> {
+                      long start = System.nanoTime();
+                      Document doc = Jsoup.parse(response.body(), response.charset(), response.url());
+                      METRICS.phase(Metrics.Phase.PARSE, Metrics.hostOf(response.url()),
+                            System.nanoTime() - start);
+                      List<JsoupElementResult> rows = new ArrayList<>();
+                      Iterator<Element> elements = new ElementIterator(doc, evaluator);
+                      while (elements.hasNext()) {
+                          rows.add(new JsoupElementResult(doc.baseUri(), elements.next(), fields));
+                      }
+                      return rows;
+                  },
+                  (url, e) -> {
+                      if (failOnError) {
+                          throw e instanceof IOException ? new UncheckedIOException((IOException) e)
+                                : new RuntimeException("Could not select from " + url, e);
+                      }
+                      target.warn("Could not select from %s: %s", url, e);
+                      return Collections.singletonList(JsoupElementResult.failed(url + ": " + errorMessage(e)));
+                  },
+                  concurrency, window, terminationGuard).start();
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pipeline,
+                  Spliterator.ORDERED), false)
+                  .onClose(pipeline::close);
+        });
+    }
+
+    @Procedure(mode = Mode.WRITE)
+    @Description("scraper.crawl(seed,config) YIELD pages, errors, nodes, relationships, properties, " +
+          "batches, timeMillis - Crawl breadth first from a seed url and store the pages as nodes " +
+          "linked by relationships, committing in batches. Config: maxDepth, maxPages, sameHost, " +
+          "linkSelector, label, relType, batchSize, concurrency, timeout, lookupUrls (look up urls " +
+          "in the graph for page nodes created since the first write, default false).")
+    public Stream<GraphWriteResult> crawl(@Name("seed") String seed,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("crawl", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            long start = System.currentTimeMillis();
+
+            try (GraphBatchWriter writer = new GraphBatchWriter(db,
+                  Label.label(conf.getString("label", "Page")), "url",
+                  (int) conf.getLong("batchSize", WRITE_BATCH_SIZE), conf.getBoolean("lookupUrls", false))) {
+                FetchOptions options = fetchOptions(conf);
+                Crawler crawler = new Crawler((url, onStatus) -> fetchDoc(url, options, onStatus), writer,
+                      RelationshipType.withName(conf.getString("relType", "LINKS_TO")),
+                      Selectors.select(conf.getString("linkSelector", "a[href]")),
+                      (int) conf.getLong("maxDepth", 2),
+                      (int) conf.getLong("maxPages", 100),
+                      conf.getBoolean("sameHost", true),
+                      (int) conf.getLong("concurrency", FETCH_CONCURRENCY),
+                      terminationGuard);
+                crawler.crawl(seed);
+                writer.flush();
+
+                return Stream.of(new GraphWriteResult(crawler.pages(), crawler.errors(), writer.nodes(),
+                      writer.relationships(), writer.properties(), writer.batches(),
+                      System.currentTimeMillis() - start));
+            }
+        });
+    }
+
+    @Procedure(mode = Mode.WRITE)
+    @Description("scraper.refresh(label,config) YIELD candidates, pages, changed, unchanged, errors, " +
+          "properties, batches, timeMillis - Fetch again the page nodes of a label most likely changed " +
+          "since their last fetch, estimated from their history of changes, and store fetchedAt, " +
+          "contentHash, etag, lastModified, checks, changes and changeRate on them in batches. " +
+          "Config: urlProperty, budget (requests), timeBudget (ms), minProbability, selector (part of " +
+          "the page to hash), batchSize, concurrency, timeout.")
+    public Stream<RefreshResult> refresh(@Name("label") String label,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        return METRICS.track("refresh", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            long start = System.currentTimeMillis();
+            String urlProperty = conf.getString("urlProperty", "url");
+            String selector = conf.getString("selector", "");
+
+            try (GraphBatchWriter writer = new GraphBatchWriter(db, Label.label(label), urlProperty,
+                  (int) conf.getLong("batchSize", WRITE_BATCH_SIZE))) {
+                Refresher refresher = new Refresher(ARCHIVE, fetchOptions(conf), writer,
+                      selector.equals("") ? null : Selectors.select(selector),
+                      (int) conf.getLong("budget", REFRESH_BUDGET),
+                      conf.getLong("timeBudget", 0),
+                      conf.getDouble("minProbability", 0),
+                      (int) conf.getLong("concurrency", FETCH_CONCURRENCY),
+                      terminationGuard);
+                refresher.refresh(db, Label.label(label), urlProperty);
+                writer.flush();
+
+                return Stream.of(new RefreshResult(refresher.candidates(), refresher.pages(),
+                      refresher.changed(), refresher.unchanged(), refresher.errors(), writer.properties(),
+                      writer.batches(), System.currentTimeMillis() - start));
+            }
+        });
+    }
+
+    @Procedure(mode = Mode.WRITE)
+    @Description("scraper.loadLinks(url,config) YIELD pages, errors, nodes, relationships, properties, " +
+          "batches, timeMillis - Store the links of a page as relationships between page nodes, " +
+          "committing in batches. Config: label, relType, selector, batchSize, lookupUrls.")
+    public Stream<GraphWriteResult> loadLinks(@Name("url") String url,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("loadLinks", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            long start = System.currentTimeMillis();
+            Document doc;
+            try {
+                doc = getDoc(url, conf);
+            } catch (IOException e) {
+                return failed(url, e, conf,
+                      error -> new GraphWriteResult(0, 1, 0, 0, 0, 0, System.currentTimeMillis() - start));
+            }
+            String pageUrl = UrlNormalizer.canonicalize(doc.baseUri());
+            RelationshipType relType = RelationshipType.withName(conf.getString("relType", "LINKS_TO"));
+
+            try (GraphBatchWriter writer = new GraphBatchWriter(db,
+                  Label.label(conf.getString("label", "Page")), "url",
+                  (int) conf.getLong("batchSize", WRITE_BATCH_SIZE), conf.getBoolean("lookupUrls", false))) {
+                writer.mergePage(pageUrl, Collections.<String, Object>singletonMap("title", doc.title()));
+                Iterator<Element> links = new ElementIterator(doc,
+                      Selectors.select(conf.getString("selector", "a[href]")));
+                while (links.hasNext()) {
+                    Element link = links.next();
+                    String href = link.absUrl("href");
+                    if (href.isEmpty()) {
+                        continue;
+                    }
+                    writer.createLink(pageUrl, UrlNormalizer.canonicalize(href), relType,
+                          Collections.<String, Object>singletonMap("text", link.text()));
+                }
+                writer.flush();
+
+                return Stream.of(new GraphWriteResult(1, 0, writer.nodes(), writer.relationships(),
+                      writer.properties(), writer.batches(), System.currentTimeMillis() - start));
+            }
+        });
+    }
+
+    @Procedure(mode = Mode.WRITE)
+    @Description("scraper.loadElements(url,selector,mapping,config) YIELD pages, errors, nodes, " +
+          "relationships, properties, batches, timeMillis - Store every matched element as a node, " +
+          "with properties read as given in mapping ({property: 'text' or '@attribute', ...}), " +
+          "committing in batches. Config: label, pageLabel, relType, batchSize, lookupUrls.")
+    public Stream<GraphWriteResult> loadElements(@Name("url") String url,
+          @Name("selector") String selector,
+          @Name("mapping") Map<String, Object> mapping,
+          @Name(value = "config", defaultValue = "{}") Map<String, Object> config) throws IOException {
+        return METRICS.track("loadElements", () -> {
+            ScraperConfig conf = new ScraperConfig(config);
+            long start = System.currentTimeMillis();
+            Document doc;
+            try {
+                doc = getDoc(url, conf);
+            } catch (IOException e) {
+                return failed(url, e, conf,
+                      error -> new GraphWriteResult(0, 1, 0, 0, 0, 0, System.currentTimeMillis() - start));
+            }
+            String pageUrl = UrlNormalizer.canonicalize(doc.baseUri());
+            Label label = Label.label(conf.getString("label", "Element"));
+            String relTypeName = conf.getString("relType", "HAS_ELEMENT");
+            RelationshipType relType = relTypeName.isEmpty() ? null : RelationshipType.withName(relTypeName);
+
+            try (GraphBatchWriter writer = new GraphBatchWriter(db,
+                  Label.label(conf.getString("pageLabel", "Page")), "url",
+                  (int) conf.getLong("batchSize", WRITE_BATCH_SIZE), conf.getBoolean("lookupUrls", false))) {
+                Iterator<Element> elements = new ElementIterator(doc, Selectors.select(selector));
+                while (elements.hasNext()) {
+                    Element element = elements.next();
+                    Map<String, Object> properties = new HashMap<>();
+                    for (Map.Entry<String, Object> field : mapping.entrySet()) {
+                        properties.put(field.getKey(),
+                              FieldExtractor.value(element, field.getValue().toString()));
+                    }
+                    writer.createNode(label, properties, pageUrl, relType);
+                }
+                writer.flush();
+
+                return Stream.of(new GraphWriteResult(1, 0, writer.nodes(), writer.relationships(),
+                      writer.properties(), writer.batches(), System.currentTimeMillis() - start));
+            }
+        });
+    }
+
+    private static List<FetchResult> fetchRows(String url, FetchOptions options, String selector,
+          String output, Set<String> fields, CustomHtmlToPlainText formatter) {
+        // the status of the response, none if the page came from the cache
+        final Long[] status = {null};
+        try {
+            Document doc = DOCUMENT_CACHE.get(url, u -> fetchDoc(u, options, code -> status[0] = (long) code));
+            switch (output) {
+                case "elements":
+                    List<FetchResult> rows = new ArrayList<>();
+                    Iterator<Element> elements = new ElementIterator(doc, Selectors.select(selector));
+                    while (elements.hasNext()) {
+                        rows.add(new FetchResult(url, status[0], null,
+                              new JsoupElementResult(doc.baseUri(), elements.next(), fields).element, null));
+                    }
+                    return rows;
+                case "html":
+                    String html = selector.equals("") ? doc.outerHtml() : select(doc, selector).outerHtml();
+                    return Collections.singletonList(new FetchResult(url, status[0], html, null, null));
+                default:
+                    return Collections.singletonList(new FetchResult(url, status[0],
+                          plainText(doc, selector, formatter), null, null));
+            }
+        } catch (HttpStatusException e) {
+            return Collections.singletonList(new FetchResult(url, (long) e.getStatusCode(), null,
+                  null, e.getMessage()));
+        } catch (Exception e) {
+            return Collections.singletonList(new FetchResult(url, null, null, null, errorMessage(e)));
+        }
+    }
+
+    @Procedure
+    @Description("scraper.politeness(config) YIELD value - " +
+          "Change the per host limits and circuit breakers shared by all url procedures and return them. " +
+          "Config: requestsPerSecond, burst, maxInFlight, robots (honor robots.txt crawl-delay), " +
+          "maxDelay (longest crawl-delay or Retry-After honored, in ms), failureThreshold (failures in a row " +
+          "that stop requests to a host, 0 for never), openMillis (how long they stop), " +
+          "closeBreakers (let requests to every host through again).")
+    public Stream<MapResult> politeness(@Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        Map<String, Object> settings = config == null ? Collections.<String, Object>emptyMap() : config;
+        HTTP_FETCHER.governor().configure(settings);
+        HTTP_FETCHER.breaker().configure(settings);
+        Map<String, Object> result = new LinkedHashMap<>(HTTP_FETCHER.governor().settings());
+        result.putAll(HTTP_FETCHER.breaker().settings());
+        return Stream.of(new MapResult(result));
+    }
+
+    @Procedure
+    @Description("scraper.archive(config) YIELD value - " +
+          "Change the on-disk page archive used by all url procedures and return its settings. " +
+          "Config: directory, mode (off, record, replay or revalidate), segmentSize (bytes per segment file).")
+    public Stream<MapResult> archive(@Name(value = "config", defaultValue = "{}") Map<String, Object> config)
+          throws IOException {
+        ARCHIVE.configure(config == null ? Collections.<String, Object>emptyMap() : config);
+        return Stream.of(new MapResult(ARCHIVE.settings()));
+    }
+
+    @Procedure
+    @Description("scraper.stats() YIELD value - " +
+          "Counters since the last reset: calls, rows, errors and latency per procedure, " +
+          "latency of the queue, dns, connect, transfer, parse and serialize phases, " +
+          "requests, bytes and errors per host, errors by type and cache hit rates.")
+    public Stream<MapResult> stats() {
+        return Stream.of(new MapResult(METRICS.snapshot()));
+    }
+
+    @Procedure
+    @Description("scraper.resetStats() - " +
+          "Set every counter of scraper.stats() back to zero.")
+    public void resetStats() {
+        METRICS.reset();
+    }
+
+    @Procedure
+    @Description("scraper.logStats(intervalSeconds) - " +
+          "Write a summary of scraper.stats() to the log at this interval, 0 to stop.")
+    public void logStats(@Name("intervalSeconds") long intervalSeconds) {
+        Log target = log;
+        METRICS.logPeriodically(intervalSeconds * 1000, target::info);
+    }
+
+    @Procedure
+    @Description("scraper.clearCache() - " +
+          "Drop every cached document, so the next calls fetch the pages again, " +
+          "and the url to node indexes of the graph writes.")
+    public void clearCache() {
+        DOCUMENT_CACHE.clear();
+        UrlNodeIndex.clearAll();
+    }
+
+    // links are scanned straight from the response body, which is closed with the stream
+    private Stream<LinkResult> scanUrl(String url, boolean media, ScraperConfig conf) throws IOException {
+        FetchOptions options = fetchOptions(conf);
+        HttpResponse response;
+        try {
+            response = ARCHIVE.fetch(url, options);
+        } catch (IOException e) {
+            return failed(url, e, conf, LinkResult::failed);
+        }
+        BufferedInputStream body = new BufferedInputStream(
+              BodyReader.limit(response.body(), options.maxBodySize(), response.url()));
+        return LinkScanner.stream(new InputStreamReader(body, BodyReader.charset(body, response.charset())),
+              response.url(), media);
+    }
+
+    // the sitemap is given as xml when there is no url, the sitemaps of an index are always fetched
+    private Stream<SitemapResult> sitemapRows(String url, String xml, ScraperConfig conf) {
+        FetchOptions options = fetchOptions(conf).ignoreContentType(true)
+              .maxBodySize((int) conf.getLong("maxBodySize", 0));
+        String since = conf.getString("since", null);
+        Long sinceMillis = null;
+        if (since != null) {
+            sinceMillis = since.matches("\\d{5,}") ? conf.getLong("since", 0) : SitemapReader.parseDate(since);
+            if (sinceMillis == null) {
+                throw new IllegalArgumentException("Invalid since '" + since +
+                      "', use a W3C datetime like 2020-01-31 or epoch millis");
+            }
+        }
+        Log target = log;
+        return SitemapReader.stream(url,
+              sitemapUrl -> xml != null && sitemapUrl.equals(url)
+                    ? new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))
+                    : openSitemap(sitemapUrl, options),
+              conf.getBoolean("followIndex", true), sinceMillis,
+              (sitemapUrl, e) -> target.warn("Could not read sitemap %s: %s", sitemapUrl, e));
+    }
+
+    private static InputStream openSitemap(String url, FetchOptions options) throws IOException {
+        HttpResponse response = ARCHIVE.fetch(url, options);
+        return BodyReader.limit(response.body(), options.maxBodySize(), response.url());
+    }
+
+    private static String plainText(Document doc, String selector, CustomHtmlToPlainText formatter) {
+        StringBuilder plainText = new StringBuilder();
+        if (!selector.equals("")) {
+            Iterator<Element> elements = new ElementIterator(doc, Selectors.select(selector));
+            while (elements.hasNext()) {
+                formatter.appendPlainText(elements.next(), plainText);
+            }
+        } else {
+            formatter.appendPlainText(doc, plainText);
+        }
+        return plainText.toString();
+    }
+
+    private static Elements select(Document doc, String selector) {
+        Elements elements = new Elements();
+        new ElementIterator(doc, Selectors.select(selector)).forEachRemaining(elements::add);
+        return elements;
+    }
+
+    private static long count(Document doc, String selector) {
+        Iterator<Element> elements = new ElementIterator(doc, Selectors.select(selector));
+        long count = 0;
+        while (elements.hasNext()) {
+            elements.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static Stream<StringResult> distinctValues(Document doc, String selector, String attr) {
+        Set<String> values = new LinkedHashSet<>();
+        Iterator<Element> elements = new ElementIterator(doc, Selectors.select(selector));
+        while (elements.hasNext()) {
+            Element element = elements.next();
+            if (attr.equals("")) {
+                values.add(element.text());
+            } else if (element.hasAttr(attr)) {
+                values.add(element.attr(attr));
+            }
+        }
+        return values.stream().map(StringResult::new);
+    }
+
+    private static FingerprintResult fingerprint(Document doc, String selector, String key, ScraperConfig conf) {
+        long fingerprint = SimHash.fingerprint(plainText(doc, selector, new CustomHtmlToPlainText(0)));
+        String index = conf.getString("index", null);
+        if (index == null) {
+            return new FingerprintResult(fingerprint, null, null);
+        }
+        int distance = (int) conf.getLong("distance", DUPLICATE_DISTANCE);
+        SimHashIndex fingerprints = FINGERPRINTS.computeIfAbsent(index,
+              name -> new SimHashIndex(Math.max(distance, DUPLICATE_DISTANCE)));
+        String entry = key != null ? key : Long.toHexString(fingerprint);
+        SimHashIndex.Match match = conf.getBoolean("add", true)
+              ? fingerprints.findOrAdd(entry, fingerprint, distance)
+              : fingerprints.find(fingerprint, distance);
+        return match == null ? new FingerprintResult(fingerprint, null, null)
+              : new FingerprintResult(fingerprint, match.key, (long) match.distance);
+    }
+
+    private static CustomHtmlToPlainText formatter(ScraperConfig conf) {
+        int width = (int) conf.getLong("width", CustomHtmlToPlainText.DEFAULT_WIDTH);
+        return new CustomHtmlToPlainText(conf.getBoolean("wrap", true) ? width : 0);
+    }
+
+    private static Document parseHtml(String html) {
+        long start = System.nanoTime();
         Document doc = Jsoup.parseBodyFragment(html);
-        Elements elements = doc.getAllElements();
+        METRICS.phase(Metrics.Phase.PARSE, null, System.nanoTime() - start);
+        return doc;
+    }
 
-        return getResult(doc, elements).stream();
+    private Document getDoc(String url, ScraperConfig conf) throws IOException {
+        FetchOptions options = fetchOptions(conf);
+        return DOCUMENT_CACHE.get(url, u -> fetchDoc(u, options));
     }
 
-    private List<JsoupElementResult> getResult(Document doc, String selector) {
-        List<JsoupElementResult> list = new ArrayList<>();
-        Elements elements = doc.select(selector);
-        for (Element element : elements) {
-            list.add(new JsoupElementResult(doc.baseUri(), element));
+    /**
+     * Fetch and parse a page, or answer one row with the error if it cannot
+     * be fetched, unless the config sets failOnError. Only fetch errors
+     * become rows; a wrong selector still fails the query.
+     */
+    private <T> Stream<T> withDoc(String url, Map<String, Object> config, Function<String, T> failed,
+          Function<Document, Stream<T>> rows) throws IOException {
+        ScraperConfig conf = new ScraperConfig(config);
+        Document doc;
+        try {
+            doc = getDoc(url, conf);
+        } catch (IOException e) {
+            return failed(url, e, conf, failed);
         }
-        return list;
+        return rows.apply(doc);
+    }
+
+    private <T> Stream<T> failed(String url, IOException e, ScraperConfig conf, Function<String, T> failed)
+          throws IOException {
+        if (conf.getBoolean("failOnError", false)) {
+            throw e;
+        }
+        log.warn("Could not fetch %s: %s", url, e);
+        return Stream.of(failed.apply(errorMessage(e)));
+    }
+
+    static String errorMessage(Exception e) {
+        if (e instanceof HttpStatusException) {
+            return e.getMessage() + ", status " + ((HttpStatusException) e).getStatusCode();
+        }
+        return e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    private static Document fetchDoc(String url, FetchOptions options) throws IOException {
+        return fetchDoc(url, options, status -> { });
     }
 
-    private List<JsoupElementResult> getResult(Document doc, Elements elements) {
-        List<JsoupElementResult> list = new ArrayList<>();
-        for (Element element : elements) {
-            list.add(new JsoupElementResult(doc.baseUri(), element));
+    private static Document fetchDoc(String url, FetchOptions options, IntConsumer onStatus) throws IOException {
+        try (HttpResponse response = ARCHIVE.fetch(url, options)) {
+            onStatus.accept(response.status());
+            long start = System.nanoTime();
+            Document doc = Jsoup.parse(BodyReader.limit(response.body(), options.maxBodySize(), response.url()),
+                  response.charset(), response.url());
+            METRICS.phase(Metrics.Phase.PARSE, Metrics.hostOf(response.url()),
+                  System.nanoTime() - start - response.transferNanos());
+            return doc;
         }
-        return list;
     }
 
-    private Document getDoc(@Name("url") String url) throws IOException {
-        return Jsoup.connect(url).userAgent(USERAGENT).ignoreHttpErrors(IGNORE_ERRORS)
-              .timeout(TIMEOUT)
-              .get();
+    private static FetchOptions fetchOptions(ScraperConfig conf) {
+        return new FetchOptions().userAgent(USERAGENT)
+              .ignoreHttpErrors(IGNORE_ERRORS)
+              .timeout((int) conf.getLong("timeout", TIMEOUT))
+              .maxBodySize((int) conf.getLong("maxBodySize", BodyReader.DEFAULT_MAX_BODY_SIZE))
+              .retries((int) conf.getLong("retries", RETRIES))
+              .backoff((int) conf.getLong("backoff", RETRY_BACKOFF));
     }
 }
@@ -0,0 +1,105 @@
+package scraper.archive;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import scraper.http.HttpResponse;
+
+/**
+ * A page read from a {@link PageArchive}. The body is a view of the mapped
+ * segment, it is only copied when it is read.
+ */
+public class ArchivedPage {
+
+    private final String url;
+    private final int status;
+    private final long fetchedAt;
+    private final Map<String, List<String>> headers;
+    private final ByteBuffer body;
+
+    ArchivedPage(String url, int status, long fetchedAt, Map<String, List<String>> headers, ByteBuffer body) {
+        this.url = url;
+        this.status = status;
+        this.fetchedAt = fetchedAt;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * @return the url of the page, after following redirects
+     */
+    public String url() {
+        return url;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    /**
+     * @return the time the page was fetched, in epoch milliseconds
+     */
+    public long fetchedAt() {
+        return fetchedAt;
+    }
+
+    public Map<String, List<String>> headers() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @return the length of the body in bytes
+     */
+    public int length() {
+        return body.remaining();
+    }
+
+    /**
+     * @return the page as a response, as if it was fetched again
+     */
+    public HttpResponse response() {
+        return new HttpResponse(url, status, headers, new BufferInputStream(body.duplicate()));
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            // Buffer.position(int), as ByteBuffer.position(int) is missing on Java 8
+            ((Buffer) buffer).position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
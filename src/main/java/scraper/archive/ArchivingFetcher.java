@@ -0,0 +1,243 @@
+package scraper.archive;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import scraper.http.FetchOptions;
+import scraper.http.HttpFetcher;
+import scraper.http.HttpResponse;
+import scraper.util.ScraperConfig;
+
+/**
+ * Puts a {@link PageArchive} in front of a {@link HttpFetcher}, so that
+ * pages can be fetched once and parsed again later without the network.
+ * <ul>
+ * <li>off: every request goes to the network, the default</li>
+ * <li>record: successful responses are stored in the archive while their
+ * body is read; only bodies read to the end are stored</li>
+ * <li>replay: pages are served from the archive only, a page that is not in
+ * it fails the request</li>
+ * <li>revalidate: archived pages are requested again with If-None-Match and
+ * If-Modified-Since; a 304 serves the archived page, anything else is
+ * recorded</li>
+ * </ul>
+ * Bodies are stored decompressed, so the Content-Encoding and Content-Length
+ * headers are not stored.
+ */
+public class ArchivingFetcher {
+
+    public enum Mode {
+        OFF, RECORD, REPLAY, REVALIDATE
+    }
+
+    private static final List<String> UNSTORED_HEADERS = Arrays.asList(
+          "content-encoding", "content-length", "transfer-encoding");
+
+    private final HttpFetcher fetcher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile Mode mode = Mode.OFF;
+    private volatile PageArchive archive;
+    private long segmentSize = PageArchive.DEFAULT_SEGMENT_SIZE;
+
+    public ArchivingFetcher(HttpFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Fetch a page as set by the mode, see {@link HttpFetcher#fetch}.
+     *
+     * @throws IOException if the page is not in the archive when replaying
+     */
+    public HttpResponse fetch(String url, FetchOptions options) throws IOException {
+        Mode mode = this.mode;
+        PageArchive archive = this.archive;
+        if (mode == Mode.OFF || archive == null) {
+            return fetcher.fetch(url, options);
+        }
+
+        ArchivedPage page = mode == Mode.RECORD ? null : archive.get(url);
+        if (mode == Mode.REPLAY) {
+            if (page == null) {
+                misses.increment();
+                throw new IOException(url + " is not in the page archive " + archive.directory());
+            }
+            hits.increment();
+            return page.response();
+        }
+
+        FetchOptions request = options;
+        if (page != null) {
+            request = options.copy();
+            String etag = first(page.headers(), "ETag");
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            String lastModified = first(page.headers(), "Last-Modified");
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+        }
+        HttpResponse response = fetcher.fetch(url, request);
+        if (page != null && response.status() == 304) {
+            response.close();
+            hits.increment();
+            return page.response();
+        }
+        misses.increment();
+        if (response.status() < 200 || response.status() >= 300) {
+            return response;
+        }
+        return response.withBody(new RecordingInputStream(response.body(), archive, url, response));
+    }
+
+    /**
+     * Change the settings given in the map; every other setting stays.
+     * Config: directory, mode (off, record, replay or revalidate) and
+     * segmentSize in bytes.
+     */
+    public synchronized void configure(Map<String, Object> settings) throws IOException {
+        ScraperConfig conf = new ScraperConfig(settings);
+        Mode newMode = mode;
+        if (settings.containsKey("mode")) {
+            String name = String.valueOf(settings.get("mode")).toUpperCase(Locale.ENGLISH);
+            try {
+                newMode = Mode.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown archive mode " + settings.get("mode") +
+                      ", use off, record, replay or revalidate");
+            }
+        }
+        long newSegmentSize = conf.getLong("segmentSize", segmentSize);
+        // a null directory closes the archive
+        String directory = settings.containsKey("directory") ? conf.getString("directory", null)
+              : archive == null ? null : archive.directory().toString();
+
+        if (newMode != Mode.OFF && directory == null) {
+            throw new IllegalArgumentException("The archive needs a directory");
+        }
+        boolean reopen = directory == null ? archive != null
+              : archive == null || !archive.directory().equals(Paths.get(directory)) || newSegmentSize != segmentSize;
+        if (reopen) {
+            PageArchive previous = archive;
+            archive = directory == null ? null : new PageArchive(Paths.get(directory), newSegmentSize);
+            if (previous != null) {
+                previous.close();
+            }
+        }
+        segmentSize = newSegmentSize;
+        mode = newMode;
+    }
+
+    public synchronized Map<String, Object> settings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("mode", mode.name().toLowerCase(Locale.ENGLISH));
+        settings.put("directory", archive == null ? null : archive.directory().toString());
+        settings.put("segmentSize", segmentSize);
+        settings.put("pages", archive == null ? 0L : (long) archive.size());
+        return settings;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    private static String first(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    // keeps a copy of the body and stores the page once the body was read to the end
+    private static class RecordingInputStream extends FilterInputStream {
+        private final PageArchive archive;
+        private final String url;
+        private final HttpResponse response;
+        private byte[] copy = new byte[8192];
+        private int length = 0;
+        private boolean stored = false;
+
+        RecordingInputStream(InputStream in, PageArchive archive, String url, HttpResponse response) {
+            super(in);
+            this.archive = archive;
+            this.url = url;
+            this.response = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                store();
+            } else {
+                ensure(1);
+                copy[length++] = (byte) b;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                store();
+            } else if (read > 0) {
+                ensure(read);
+                System.arraycopy(b, off, copy, length, read);
+                length += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes have to be in the copy too
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void ensure(int more) {
+            if (length + more > copy.length) {
+                copy = Arrays.copyOf(copy, Math.max(copy.length * 2, length + more));
+            }
+        }
+
+        private void store() throws IOException {
+            if (stored) {
+                return;
+            }
+            stored = true;
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> header : response.headers().entrySet()) {
+                if (header.getKey() != null
+                      && !UNSTORED_HEADERS.contains(header.getKey().toLowerCase(Locale.ENGLISH))) {
+                    headers.put(header.getKey(), header.getValue());
+                }
+            }
+            archive.put(url, response.url(), response.status(), System.currentTimeMillis(),
+                  headers, copy, length);
+            copy = null;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package scraper.archive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import scraper.util.UrlNormalizer;
+
+/**
+ * Append only store of fetched pages on the local disk.
+ * <p>
+ * Pages are appended to segment files of a limited size, each record holding
+ * the url, the final url after redirects, the status, the fetch time, the
+ * headers and the raw body bytes. An index file gets one line per record with
+ * the url and the position of the record; it is read into memory when the
+ * archive is opened, and the latest record of an url wins. Records are never
+ * changed or removed, storing a page again appends a new record.
+ * <p>
+ * Reads map the segment files into memory, so replaying a page does not copy
+ * its body through the heap. Writes are serialized, reads are lock free.
+ */
+public class PageArchive implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    private static final int MAGIC = 0x53435241;
+    private static final String INDEX = "index";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static class Location {
+        final int segment;
+        final long offset;
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+
+    private final BufferedWriter indexWriter;
+    private FileChannel segment;
+    private int segmentNumber;
+
+    /**
+     * Open an archive, creating the directory if needed.
+     *
+     * @param directory   the directory of the segments and the index
+     * @param segmentSize the size after which a new segment is started
+     */
+    public PageArchive(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        segmentNumber = readIndex();
+        segment = openSegment(segmentNumber);
+        indexWriter = Files.newBufferedWriter(directory.resolve(INDEX), StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of archived urls
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public boolean contains(String url) {
+        return index.containsKey(UrlNormalizer.normalize(url));
+    }
+
+    /**
+     * @return the latest archived page of an url, or null
+     */
+    public ArchivedPage get(String url) throws IOException {
+        Location location = index.get(UrlNormalizer.normalize(url));
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer record = map(location);
+        if (record.getInt() != MAGIC) {
+            throw new IOException("Corrupt page archive record of " + url + " in " + directory);
+        }
+        readString(record); // the requested url
+        String finalUrl = readString(record);
+        int status = record.getInt();
+        long fetchedAt = record.getLong();
+        int headerCount = record.getInt();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            String name = readString(record);
+            String value = readString(record);
+            headers.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+        }
+        int bodyLength = record.getInt();
+        ByteBuffer body = record.slice();
+        ((Buffer) body).limit(bodyLength);
+        return new ArchivedPage(finalUrl, status, fetchedAt, headers, body);
+    }
+
+    /**
+     * Append a page to the archive.
+     *
+     * @param url       the requested url, the key of the page
+     * @param finalUrl  the url after redirects
+     * @param status    the http status
+     * @param fetchedAt the fetch time in epoch milliseconds
+     * @param headers   the response headers
+     * @param body       the raw body, of which the first bodyLength bytes are stored
+     * @param bodyLength the length of the body
+     */
+    public synchronized void put(String url, String finalUrl, int status, long fetchedAt,
+          Map<String, List<String>> headers, byte[] body, int bodyLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(bodyLength + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        writeString(out, url);
+        writeString(out, finalUrl);
+        out.writeInt(status);
+        out.writeLong(fetchedAt);
+        List<String[]> pairs = new ArrayList<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            // the status line is in the headers of HttpURLConnection without a name
+            if (header.getKey() == null) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                pairs.add(new String[]{header.getKey(), value});
+            }
+        }
+        out.writeInt(pairs.size());
+        for (String[] pair : pairs) {
+            writeString(out, pair[0]);
+            writeString(out, pair[1]);
+        }
+        out.writeInt(bodyLength);
+        out.write(body, 0, bodyLength);
+        out.flush();
+
+        if (segment.size() > 0 && segment.size() + bytes.size() > segmentSize) {
+            segment.close();
+            segmentNumber++;
+            segment = openSegment(segmentNumber);
+        }
+        long offset = segment.size();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            segment.write(buffer, offset + buffer.position());
+        }
+
+        String key = UrlNormalizer.normalize(url);
+        indexWriter.write(key + '\t' + segmentNumber + '\t' + offset + '\t' + bytes.size());
+        indexWriter.newLine();
+        indexWriter.flush();
+        index.put(key, new Location(segmentNumber, offset, bytes.size()));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            indexWriter.close();
+        } finally {
+            segment.close();
+            mapped.clear();
+        }
+    }
+
+    // reads the index and returns the number of the last segment
+    private int readIndex() throws IOException {
+        int last = 0;
+        List<String> lines;
+        try (BufferedReader reader = Files.newBufferedReader(directory.resolve(INDEX), StandardCharsets.UTF_8)) {
+            lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (NoSuchFileException e) {
+            lines = Collections.emptyList();
+        }
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                continue; // a line cut off by a crash
+            }
+            try {
+                Location location = new Location(Integer.parseInt(fields[1]),
+                      Long.parseLong(fields[2]), Integer.parseInt(fields[3]));
+                Path file = segmentFile(location.segment);
+                if (Files.exists(file) && Files.size(file) >= location.offset + location.length) {
+                    index.put(fields[0], location);
+                    last = Math.max(last, location.segment);
+                }
+            } catch (NumberFormatException e) {
+                // skip a damaged line
+            }
+        }
+        return last;
+    }
+
+    private FileChannel openSegment(int number) throws IOException {
+        return FileChannel.open(segmentFile(number), StandardOpenOption.CREATE,
+              StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    // a read only view of a record; a segment is mapped again once it grew past its mapping
+    private ByteBuffer map(Location location) throws IOException {
+        long end = location.offset + location.length;
+        MappedByteBuffer buffer = mapped.get(location.segment);
+        if (buffer == null || buffer.capacity() < end) {
+            try (FileChannel channel = FileChannel.open(segmentFile(location.segment), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mapped.put(location.segment, buffer);
+        }
+        // through the base types: the covariant overrides of Java 9 and later are missing on Java 8
+        ByteBuffer record = ((ByteBuffer) buffer).duplicate();
+        ((Buffer) record).position((int) location.offset);
+        ((Buffer) record).limit((int) end);
+        return record.slice();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,103 @@
+package scraper.cache;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded, process wide cache of values compiled from a source string, like
+ * parsed CSS selectors or regular expressions.
+ * <p>
+ * Lookups are lock free. When the cache is full, the entries not used since
+ * the previous eviction are dropped (a second chance policy), so selectors
+ * that are used over and over stay while one-off ones are evicted. The
+ * cached values are shared between threads and must be immutable.
+ */
+public class CompiledCache<T> {
+
+    private static class Entry<T> {
+        final T value;
+        volatile boolean used = true;
+
+        Entry(T value) {
+            this.value = value;
+        }
+    }
+
+    private final int maxSize;
+    private final Function<String, T> compiler;
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize  the maximum number of cached values
+     * @param compiler compiles a value from its source, may throw for an
+     *                 invalid source, which is then not cached
+     */
+    public CompiledCache(int maxSize, Function<String, T> compiler) {
+        this.maxSize = maxSize;
+        this.compiler = compiler;
+    }
+
+    public T get(String source) {
+        Entry<T> entry = entries.get(source);
+        if (entry != null) {
+            hits.increment();
+            if (!entry.used) {
+                entry.used = true;
+            }
+            return entry.value;
+        }
+
+        misses.increment();
+        // compiled outside of the map, two threads missing at once both compile
+        T value = compiler.apply(source);
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+        Entry<T> previous = entries.putIfAbsent(source, new Entry<>(value));
+        return previous == null ? value : previous.value;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    private synchronized void evict() {
+        if (entries.size() < maxSize) {
+            return;
+        }
+        for (Iterator<Entry<T>> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry<T> entry = it.next();
+            if (entry.used) {
+                entry.used = false;
+            } else {
+                it.remove();
+            }
+        }
+        // everything was used since the last eviction, make room anyway
+        if (entries.size() >= maxSize) {
+            Iterator<Entry<T>> it = entries.values().iterator();
+            for (int i = 0; i < maxSize / 2 && it.hasNext(); i++) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package scraper.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import scraper.util.UrlNormalizer;
+
+/**
+ * Process wide cache of parsed documents, shared by every procedure call.
+ * <p>
+ * Entries are keyed by normalized url, expire after a fixed time to live and
+ * are evicted in least recently used order once the estimated size of the
+ * cached documents exceeds the configured limit. Concurrent misses for the
+ * same url wait for a single fetch instead of loading the page again.
+ * <p>
+ * Cached documents are shared between callers, so they must be treated as
+ * read only.
+ */
+public class DocumentCache {
+
+    // rough retained size of a node object with its attributes and child list
+    private static final int NODE_OVERHEAD = 160;
+
+    public interface Loader {
+        Document load(String url) throws IOException;
+    }
+
+    private static class Entry {
+        final Document document;
+        final long weight;
+        final long expiresAt;
+
+        Entry(Document document, long weight, long expiresAt) {
+            this.document = document;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long maxWeight;
+    private final long ttlMillis;
+
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ConcurrentMap<String, CompletableFuture<Document>> inFlight = new ConcurrentHashMap<>();
+    private long weight = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    public DocumentCache(long maxWeight, long ttlMillis) {
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Return the cached document of an url, or load it with the given loader.
+     *
+     * @param url    the url of the document
+     * @param loader fetches and parses the document on a miss
+     * @return the parsed document
+     * @throws IOException if the loader fails
+     */
+    public Document get(String url, Loader loader) throws IOException {
+        String key = UrlNormalizer.normalize(url);
+
+        Document cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<Document> future = new CompletableFuture<>();
+        CompletableFuture<Document> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            waits.incrementAndGet();
+            return await(running);
+        }
+
+        try {
+            // another load may have finished between the lookup and putIfAbsent
+            Document doc = lookup(key);
+            if (doc != null) {
+                hits.incrementAndGet();
+                future.complete(doc);
+                return doc;
+            }
+            misses.incrementAndGet();
+            doc = loader.load(url);
+            put(key, doc);
+            future.complete(doc);
+            return doc;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public synchronized void invalidate(String url) {
+        Entry entry = entries.remove(UrlNormalizer.normalize(url));
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of documents loaded
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of calls that waited for a concurrent load of the
+     * same url, neither hits nor misses
+     */
+    public long waits() {
+        return waits.get();
+    }
+
+    private synchronized Document lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            weight -= entry.weight;
+            return null;
+        }
+        return entry.document;
+    }
+
+    private void put(String key, Document doc) {
+        long docWeight = estimateWeight(doc);
+        if (docWeight > maxWeight) {
+            return;
+        }
+        Entry entry = new Entry(doc, docWeight, System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += docWeight;
+
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (weight > maxWeight && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                weight -= eldest.weight;
+            }
+        }
+    }
+
+    private static Document await(CompletableFuture<Document> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " +
+                  "a concurrent fetch");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // walks the DOM once, counting nodes and text, which is much cheaper than
+    // serializing the document to measure it
+    static long estimateWeight(Document doc) {
+        final long[] weight = {0};
+        new NodeTraversor(new NodeVisitor() {
+            public void head(Node node, int depth) {
+                weight[0] += NODE_OVERHEAD;
+                if (node instanceof TextNode) {
+                    weight[0] += 2L * ((TextNode) node).getWholeText().length();
+                }
+            }
+
+            public void tail(Node node, int depth) {
+            }
+        }).traverse(doc);
+        return weight[0];
+    }
+}
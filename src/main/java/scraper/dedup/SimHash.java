@@ -0,0 +1,93 @@
+package scraper.dedup;
+
+/**
+ * 64 bit SimHash fingerprints of text, for finding near duplicate pages.
+ * <p>
+ * The text is split into words of letters and digits, ignoring case, and
+ * every run of {@link #SHINGLE_SIZE} consecutive words is hashed. Each bit of
+ * the fingerprint is the majority vote of that bit over all those hashes, so
+ * texts that share most of their word runs get fingerprints that differ in
+ * few bits. The words are hashed as they are read, without creating strings.
+ */
+public class SimHash {
+
+    public static final int SHINGLE_SIZE = 3;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SimHash() {
+    }
+
+    /**
+     * @return the fingerprint of a text, 0 for a text without words
+     */
+    public static long fingerprint(CharSequence text) {
+        int[] votes = new int[64];
+        long[] window = new long[SHINGLE_SIZE];
+        int words = 0;
+        long word = FNV_OFFSET;
+        boolean inWord = false;
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                window[words % SHINGLE_SIZE] = word;
+                words++;
+                if (words >= SHINGLE_SIZE) {
+                    vote(votes, shingle(window, words));
+                }
+                word = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+        if (words > 0 && words < SHINGLE_SIZE) {
+            // a text shorter than one shingle is one shingle
+            vote(votes, shingle(window, words));
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the number of bits two fingerprints differ in
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    // the hash of the last words in the window, in their order
+    private static long shingle(long[] window, int words) {
+        long hash = 0;
+        int count = Math.min(words, SHINGLE_SIZE);
+        for (int i = words - count; i < words; i++) {
+            hash = Long.rotateLeft(hash, 21) ^ window[i % SHINGLE_SIZE];
+        }
+        return mix(hash);
+    }
+
+    private static void vote(int[] votes, long hash) {
+        for (int bit = 0; bit < 64; bit++) {
+            votes[bit] += (int) ((hash >>> bit) & 1) * 2 - 1;
+        }
+    }
+
+    // the finalizer of MurmurHash3, spreads every input bit over the whole hash
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,216 @@
+package scraper.dedup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of SimHash fingerprints answering whether a fingerprint
+ * within a Hamming distance was seen before.
+ * <p>
+ * The 64 bits are cut into {@code maxDistance + 1} bands. Two fingerprints
+ * differing in at most maxDistance bits agree exactly on at least one band,
+ * so a lookup only compares the fingerprints sharing a band with the query
+ * instead of all of them. Fingerprints are stored in plain arrays, the
+ * buckets of every band hold indexes into them. A lookup with a larger
+ * distance than the index was built for cuts the stored fingerprints into
+ * more bands first, up to {@value #MAX_DISTANCE} bits.
+ */
+public class SimHashIndex {
+
+    public static final int MAX_DISTANCE = 15;
+
+    /**
+     * A stored fingerprint close to the query.
+     */
+    public static class Match {
+        public final String key;
+        public final long fingerprint;
+        public final int distance;
+
+        Match(String key, long fingerprint, int distance) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.distance = distance;
+        }
+    }
+
+    private volatile int maxDistance;
+    private int[] bandShift;
+    private long[] bandMask;
+    private Map<Long, int[]> buckets;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] fingerprints = new long[1024];
+    private String[] keys = new String[1024];
+    private int size = 0;
+
+    /**
+     * @param maxDistance the largest distance lookups are expected to ask
+     *                    for; fewer bands make lookups faster
+     */
+    public SimHashIndex(int maxDistance) {
+        checkDistance(maxDistance);
+        cut(maxDistance);
+    }
+
+    /**
+     * @return the largest distance the bands are cut for, the largest one
+     * asked for so far
+     */
+    public int maxDistance() {
+        return maxDistance;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param fingerprint the fingerprint to look for
+     * @param distance    the largest distance of a match, at most {@value #MAX_DISTANCE}
+     * @return the closest stored fingerprint within the distance, or null
+     */
+    public Match find(long fingerprint, int distance) {
+        widen(distance);
+        lock.readLock().lock();
+        try {
+            return closest(fingerprint, distance);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(String key, long fingerprint) {
+        lock.writeLock().lock();
+        try {
+            insert(key, fingerprint);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Look for a fingerprint and store it if there is no match, in one step,
+     * so that of two concurrent near duplicates only the first is stored.
+     *
+     * @return the closest stored fingerprint within the distance, or null if
+     * the fingerprint was stored
+     */
+    public Match findOrAdd(String key, long fingerprint, int distance) {
+        widen(distance);
+        lock.writeLock().lock();
+        try {
+            Match match = closest(fingerprint, distance);
+            if (match == null) {
+                insert(key, fingerprint);
+            }
+            return match;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Match closest(long fingerprint, int distance) {
+        int best = -1;
+        int bestDistance = distance + 1;
+        for (int band = 0; band < bandShift.length; band++) {
+            int[] bucket = buckets.get(bucketKey(band, fingerprint));
+            if (bucket == null) {
+                continue;
+            }
+            for (int i = 1; i <= bucket[0]; i++) {
+                int candidate = bucket[i];
+                int d = Long.bitCount(fingerprints[candidate] ^ fingerprint);
+                if (d < bestDistance) {
+                    best = candidate;
+                    bestDistance = d;
+                    if (d == 0) {
+                        return new Match(keys[best], fingerprints[best], 0);
+                    }
+                }
+            }
+        }
+        return best < 0 ? null : new Match(keys[best], fingerprints[best], bestDistance);
+    }
+
+    private void insert(String key, long fingerprint) {
+        if (size == fingerprints.length) {
+            fingerprints = Arrays.copyOf(fingerprints, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int entry = size++;
+        fingerprints[entry] = fingerprint;
+        keys[entry] = key;
+        index(entry);
+    }
+
+    private void index(int entry) {
+        long fingerprint = fingerprints[entry];
+        for (int band = 0; band < bandShift.length; band++) {
+            Long bucketKey = bucketKey(band, fingerprint);
+            int[] bucket = buckets.get(bucketKey);
+            // the first slot holds the number of entries
+            if (bucket == null) {
+                bucket = new int[4];
+                buckets.put(bucketKey, bucket);
+            } else if (bucket[0] + 1 == bucket.length) {
+                bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                buckets.put(bucketKey, bucket);
+            }
+            bucket[++bucket[0]] = entry;
+        }
+    }
+
+    // the band number in the top bits, the band value below it
+    private long bucketKey(int band, long fingerprint) {
+        return ((long) band << 58) ^ ((fingerprint >>> bandShift[band]) & bandMask[band]);
+    }
+
+    // cuts the bits into maxDistance + 1 bands and puts the stored fingerprints in their buckets
+    private void cut(int maxDistance) {
+        int bands = maxDistance + 1;
+        bandShift = new int[bands];
+        bandMask = new long[bands];
+        int shift = 0;
+        for (int band = 0; band < bands; band++) {
+            int width = 64 / bands + (band < 64 % bands ? 1 : 0);
+            bandShift[band] = shift;
+            bandMask[band] = width == 64 ? -1L : (1L << width) - 1;
+            shift += width;
+        }
+        buckets = new HashMap<>();
+        for (int entry = 0; entry < size; entry++) {
+            index(entry);
+        }
+        this.maxDistance = maxDistance;
+    }
+
+    private void widen(int distance) {
+        checkDistance(distance);
+        if (distance <= maxDistance) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (distance > maxDistance) {
+                cut(distance);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void checkDistance(int distance) {
+        if (distance < 0 || distance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("The distance must be between 0 and " + MAX_DISTANCE);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package scraper.graph;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import org.jsoup.HttpStatusException;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.procedure.TerminationGuard;
+import scraper.util.DaemonThreadFactory;
+import scraper.util.ElementIterator;
+import scraper.util.UrlNormalizer;
+
+/**
+ * Breadth first crawler. The frontier and the set of visited urls are kept in
+ * memory, pages of one depth are fetched concurrently, and every fetched page
+ * and followed link is handed to a {@link GraphBatchWriter}. A page is stored
+ * under its url after redirects, and with sameHost the links are kept to the
+ * host the seed redirected to.
+ */
+public class Crawler {
+
+    /**
+     * Fetches and parses a page, telling the http status of the response.
+     */
+    public interface Loader {
+        Document load(String url, IntConsumer onStatus) throws IOException;
+    }
+
+    private static class Page {
+        final String url;
+        final Long status;
+        final String title;
+        final String error;
+        final List<String> links;
+
+        Page(String url, Long status, String title, String error, List<String> links) {
+            this.url = url;
+            this.status = status;
+            this.title = title;
+            this.error = error;
+            this.links = links;
+        }
+    }
+
+    private final Loader loader;
+    private final GraphBatchWriter writer;
+    private final RelationshipType relType;
+    private final Evaluator linkSelector;
+    private final int maxDepth;
+    private final int maxPages;
+    private final boolean sameHost;
+    private final int concurrency;
+    private final TerminationGuard guard;
+
+    private long pages = 0;
+    private long errors = 0;
+
+    public Crawler(Loader loader, GraphBatchWriter writer, RelationshipType relType,
+          Evaluator linkSelector, int maxDepth, int maxPages, boolean sameHost, int concurrency,
+          TerminationGuard guard) {
+        this.loader = loader;
+        this.writer = writer;
+        this.relType = relType;
+        this.linkSelector = linkSelector;
+        this.maxDepth = maxDepth;
+        this.maxPages = maxPages;
+        this.sameHost = sameHost;
+        this.concurrency = Math.max(1, concurrency);
+        this.guard = guard;
+    }
+
+    /**
+     * Crawl from the seed url until maxDepth or maxPages is reached.
+     */
+    public void crawl(String seed) {
+        String start = UrlNormalizer.canonicalize(seed);
+        String host = null;
+        Set<String> visited = new HashSet<>();
+        visited.add(start);
+        List<String> frontier = Collections.singletonList(start);
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency,
+              new DaemonThreadFactory("scraper-crawl"));
+        try {
+            for (int depth = 0; depth <= maxDepth && !frontier.isEmpty(); depth++) {
+                CompletionService<Page> completion = new ExecutorCompletionService<>(pool);
+                for (String url : frontier) {
+                    completion.submit(() -> fetch(url));
+                }
+
+                List<String> next = new ArrayList<>();
+                for (int i = 0; i < frontier.size(); i++) {
+                    if (guard != null) {
+                        guard.check();
+                    }
+                    Page page = take(completion);
+                    write(page, depth);
+                    // the url after redirects
+                    visited.add(page.url);
+                    if (host == null) {
+                        host = host(page.url);
+                    }
+
+                    for (String link : page.links) {
+                        if (sameHost && !host.equals(host(link))) {
+                            continue;
+                        }
+                        writer.createLink(page.url, link, relType);
+                        if (depth < maxDepth && visited.size() < maxPages && visited.add(link)) {
+                            next.add(link);
+                        }
+                    }
+                }
+                frontier = next;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public long pages() {
+        return pages;
+    }
+
+    public long errors() {
+        return errors;
+    }
+
+    private void write(Page page, int depth) {
+        pages++;
+        if (page.error != null) {
+            errors++;
+        }
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("status", page.status);
+        properties.put("title", page.title);
+        properties.put("error", page.error);
+        properties.put("depth", (long) depth);
+        properties.put("fetchedAt", System.currentTimeMillis());
+        writer.mergePage(page.url, properties);
+    }
+
+    private Page fetch(String url) {
+        try {
+            // the status of the response
+            final Long[] status = {null};
+            Document doc = loader.load(url, code -> status[0] = (long) code);
+            List<String> links = new ArrayList<>();
+            ElementIterator.stream(doc, linkSelector).forEach(element -> {
+                String link = link(element);
+                if (link != null) {
+                    links.add(link);
+                }
+            });
+            return new Page(UrlNormalizer.canonicalize(doc.baseUri()), status[0], doc.title(), null, links);
+        } catch (HttpStatusException e) {
+            return new Page(url, (long) e.getStatusCode(), null, e.getMessage(),
+                  Collections.<String>emptyList());
+        } catch (Exception e) {
+            return new Page(url, null, null, e.getClass().getSimpleName() + ": " + e.getMessage(),
+                  Collections.<String>emptyList());
+        }
+    }
+
+    private static Page take(CompletionService<Page> completion) {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while crawling", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // the absolute, normalized http(s) target of a link element
+    private static String link(Element element) {
+        String href = element.hasAttr("href") ? element.absUrl("href") : element.absUrl("src");
+        if (!href.startsWith("http://") && !href.startsWith("https://")) {
+            return null;
+        }
+        return UrlNormalizer.canonicalize(href);
+    }
+
+    private static String host(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return host == null ? "" : host;
+        } catch (URISyntaxException e) {
+            return "";
+        }
+    }
+}
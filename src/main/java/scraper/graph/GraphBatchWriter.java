@@ -0,0 +1,247 @@
+package scraper.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import scraper.util.DaemonThreadFactory;
+
+/**
+ * Writes page nodes, their links and extracted elements outside of the calling
+ * transaction, committing a new transaction every batchSize writes.
+ * <p>
+ * The writes run on a dedicated thread, because a transaction started on the
+ * procedure's own thread would just join the transaction of the query. While
+ * one batch is committed the caller can fill the next one; a third batch
+ * waits for the running one, so memory stays bounded.
+ * <p>
+ * Page nodes are identified by their url property and found through the
+ * {@link UrlNodeIndex} of their label, so no url is looked up in the graph
+ * again; with lookupMisses an url missing from it is, to find page nodes
+ * created outside of the plugin. Links are created once: a link already
+ * in the batch or in the graph, with the same ends and type, is kept as it
+ * is, so writing the same pages again adds no relationships.
+ */
+public class GraphBatchWriter implements AutoCloseable {
+
+    private final GraphDatabaseService db;
+    private final Label label;
+    private final String urlProperty;
+    private final int batchSize;
+    private final boolean lookupMisses;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+          new DaemonThreadFactory("scraper-writer"));
+
+    private List<Consumer<GraphDatabaseService>> pending = new ArrayList<>();
+    // the links of the pending batch, as from, to and type
+    private Set<List<String>> pendingLinks = new HashSet<>();
+    private Future<?> running;
+
+    private final UrlNodeIndex urls;
+
+    // only touched by the writer thread
+    private long nodes = 0;
+    private long relationships = 0;
+    private long properties = 0;
+    private long batches = 0;
+
+    public GraphBatchWriter(GraphDatabaseService db, Label label, String urlProperty, int batchSize) {
+        this(db, label, urlProperty, batchSize, false);
+    }
+
+    public GraphBatchWriter(GraphDatabaseService db, Label label, String urlProperty, int batchSize,
+          boolean lookupMisses) {
+        this.db = db;
+        this.label = label;
+        this.urlProperty = urlProperty;
+        this.batchSize = Math.max(1, batchSize);
+        this.lookupMisses = lookupMisses;
+        this.urls = UrlNodeIndex.of(label, urlProperty);
+    }
+
+    /**
+     * Create the page node of an url if it does not exist yet and set the
+     * given properties on it.
+     */
+    public void mergePage(String url, Map<String, Object> pageProperties) {
+        add(db -> setProperties(page(url), pageProperties));
+    }
+
+    /**
+     * Create a relationship between the page nodes of two urls, creating the
+     * nodes if needed, unless they are linked with this type already.
+     */
+    public void createLink(String fromUrl, String toUrl, RelationshipType type) {
+        createLink(fromUrl, toUrl, type, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Create a relationship with properties between the page nodes of two
+     * urls, creating the nodes if needed, unless they are linked with this
+     * type already.
+     */
+    public void createLink(String fromUrl, String toUrl, RelationshipType type,
+          Map<String, Object> linkProperties) {
+        if (!pendingLinks.add(Arrays.asList(fromUrl, toUrl, type.name()))) {
+            return;
+        }
+        add(db -> {
+            Node from = page(fromUrl);
+            Node to = page(toUrl);
+            if (linked(from, to, type)) {
+                return;
+            }
+            Relationship relationship = from.createRelationshipTo(to, type);
+            relationships++;
+            setProperties(relationship, linkProperties);
+        });
+    }
+
+    /**
+     * Create a node with the given label and properties, connected to the
+     * page node of an url if a relationship type is given.
+     */
+    public void createNode(Label nodeLabel, Map<String, Object> nodeProperties, String pageUrl,
+          RelationshipType type) {
+        add(db -> {
+            Node node = db.createNode(nodeLabel);
+            nodes++;
+            setProperties(node, nodeProperties);
+            if (type != null) {
+                page(pageUrl).createRelationshipTo(node, type);
+                relationships++;
+            }
+        });
+    }
+
+    /**
+     * Commit everything written so far and wait for it.
+     */
+    public void flush() {
+        submit();
+        await();
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public long nodes() {
+        return nodes;
+    }
+
+    public long relationships() {
+        return relationships;
+    }
+
+    public long properties() {
+        return properties;
+    }
+
+    public long batches() {
+        return batches;
+    }
+
+    private void add(Consumer<GraphDatabaseService> write) {
+        pending.add(write);
+        if (pending.size() >= batchSize) {
+            submit();
+        }
+    }
+
+    private void submit() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Consumer<GraphDatabaseService>> batch = pending;
+        pending = new ArrayList<>(batchSize);
+        pendingLinks = new HashSet<>();
+        await();
+        running = executor.submit(() -> {
+            try (Transaction tx = db.beginTx()) {
+                for (Consumer<GraphDatabaseService> write : batch) {
+                    write.accept(db);
+                }
+                tx.success();
+            }
+            batches++;
+        });
+    }
+
+    private void await() {
+        if (running == null) {
+            return;
+        }
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing to the graph", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Writing a batch to the graph failed", e.getCause());
+        } finally {
+            running = null;
+        }
+    }
+
+    private void setProperties(PropertyContainer entity, Map<String, Object> values) {
+        for (Map.Entry<String, Object> property : values.entrySet()) {
+            if (property.getValue() != null) {
+                entity.setProperty(property.getKey(), property.getValue());
+                properties++;
+            }
+        }
+    }
+
+    // walks the relationships of the end with fewer of them, a page seen
+    // for the first time has none
+    private static boolean linked(Node from, Node to, RelationshipType type) {
+        if (from.getDegree(type, Direction.OUTGOING) <= to.getDegree(type, Direction.INCOMING)) {
+            for (Relationship relationship : from.getRelationships(type, Direction.OUTGOING)) {
+                if (relationship.getEndNode().equals(to)) {
+                    return true;
+                }
+            }
+        } else {
+            for (Relationship relationship : to.getRelationships(type, Direction.INCOMING)) {
+                if (relationship.getStartNode().equals(from)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Node page(String url) {
+        Node node = urls.find(db, url, lookupMisses);
+        if (node == null) {
+            node = db.createNode(label);
+            node.setProperty(urlProperty, url);
+            nodes++;
+            properties++;
+            urls.put(url, node.getId());
+        }
+        return node;
+    }
+}
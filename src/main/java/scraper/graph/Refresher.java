@@ -0,0 +1,382 @@
+package scraper.graph;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.procedure.TerminationGuard;
+import scraper.archive.ArchivingFetcher;
+import scraper.http.BodyReader;
+import scraper.http.FetchOptions;
+import scraper.http.HttpResponse;
+import scraper.util.CustomHtmlToPlainText;
+import scraper.util.DaemonThreadFactory;
+import scraper.util.ElementIterator;
+
+/**
+ * Fetches again the stored pages that most likely changed since their last
+ * fetch, within a budget of requests and time.
+ * <p>
+ * Every page node keeps the time of its last fetch, a hash of its plain text,
+ * its ETag and Last-Modified headers, and how often it was checked and found
+ * changed. From these the change rate of a page is estimated, and with it the
+ * probability that the page changed since it was fetched, assuming changes
+ * arrive as a Poisson process. The pages with the highest probability are
+ * fetched with conditional requests; pages never fetched go first. Pages
+ * checked only once are assumed to change once every
+ * {@link #DEFAULT_CHANGE_INTERVAL} milliseconds.
+ */
+public class Refresher {
+
+    public static final long DEFAULT_CHANGE_INTERVAL = TimeUnit.DAYS.toMillis(7);
+
+    private static class Candidate {
+        final String url;
+        final double probability;
+        final String etag;
+        final String lastModified;
+        final String contentHash;
+        final long checks;
+        final long changes;
+        final Long firstFetchedAt;
+
+        Candidate(String url, double probability, String etag, String lastModified, String contentHash,
+              long checks, long changes, Long firstFetchedAt) {
+            this.url = url;
+            this.probability = probability;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.checks = checks;
+            this.changes = changes;
+            this.firstFetchedAt = firstFetchedAt;
+        }
+    }
+
+    private static class Checked {
+        final Candidate page;
+        final Long status;
+        final boolean notModified;
+        final String contentHash;
+        final String etag;
+        final String lastModified;
+        final String error;
+
+        Checked(Candidate page, Long status, boolean notModified, String contentHash, String etag,
+              String lastModified, String error) {
+            this.page = page;
+            this.status = status;
+            this.notModified = notModified;
+            this.contentHash = contentHash;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.error = error;
+        }
+    }
+
+    private final ArchivingFetcher fetcher;
+    private final FetchOptions options;
+    private final GraphBatchWriter writer;
+    private final Evaluator contentSelector;
+    private final int budget;
+    private final long timeBudgetMillis;
+    private final double minProbability;
+    private final int concurrency;
+    private final TerminationGuard guard;
+
+    private long candidates = 0;
+    private long pages = 0;
+    private long changed = 0;
+    private long unchanged = 0;
+    private long errors = 0;
+
+    /**
+     * @param contentSelector the part of the page whose text is hashed, null
+     *                        for the whole page
+     * @param budget          the maximum number of requests
+     * @param timeBudgetMillis no requests are started after this time, 0 for
+     *                        no limit
+     * @param minProbability  pages less likely to have changed are skipped
+     */
+    public Refresher(ArchivingFetcher fetcher, FetchOptions options, GraphBatchWriter writer,
+          Evaluator contentSelector, int budget, long timeBudgetMillis, double minProbability, int concurrency,
+          TerminationGuard guard) {
+        this.fetcher = fetcher;
+        this.options = options;
+        this.writer = writer;
+        this.contentSelector = contentSelector;
+        this.budget = Math.max(0, budget);
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.minProbability = minProbability;
+        this.concurrency = Math.max(1, concurrency);
+        this.guard = guard;
+    }
+
+    /**
+     * Refresh the most likely changed pages among the nodes of a label.
+     *
+     * @param db          read in the transaction of the caller
+     * @param label       the label of the page nodes
+     * @param urlProperty the property holding the url of a page
+     */
+    public void refresh(GraphDatabaseService db, Label label, String urlProperty) {
+        long start = System.currentTimeMillis();
+        List<Candidate> selected = select(db, label, urlProperty, start);
+        if (selected.isEmpty()) {
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, selected.size()),
+              new DaemonThreadFactory("scraper-refresh"));
+        try {
+            CompletionService<Checked> completion = new ExecutorCompletionService<>(pool);
+            int next = 0;
+            int running = 0;
+            while (next < selected.size() || running > 0) {
+                boolean inTime = timeBudgetMillis <= 0 || System.currentTimeMillis() - start < timeBudgetMillis;
+                while (inTime && next < selected.size() && running < concurrency) {
+                    Candidate page = selected.get(next++);
+                    completion.submit(() -> check(page));
+                    running++;
+                }
+                if (!inTime) {
+                    next = selected.size();
+                }
+                if (running == 0) {
+                    break;
+                }
+                if (guard != null) {
+                    guard.check();
+                }
+                write(take(completion));
+                running--;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public long candidates() {
+        return candidates;
+    }
+
+    public long pages() {
+        return pages;
+    }
+
+    public long changed() {
+        return changed;
+    }
+
+    public long unchanged() {
+        return unchanged;
+    }
+
+    public long errors() {
+        return errors;
+    }
+
+    /**
+     * Estimate the rate of changes of a page from its checks, with the
+     * estimator of Cho and Garcia-Molina, which corrects for the changes
+     * missed between two checks. A page without changes is taken to change
+     * at most once in twice the time it was observed.
+     *
+     * @param checks   how often the page was checked after its first fetch
+     * @param changes  how many of the checks found a change
+     * @param interval the time between the first and the last fetch
+     * @return the estimated changes per millisecond
+     */
+    static double changeRate(long checks, long changes, long interval) {
+        if (checks <= 0 || interval <= 0) {
+            return 1.0 / DEFAULT_CHANGE_INTERVAL;
+        }
+        double meanInterval = (double) interval / checks;
+        double rate = -Math.log((checks - changes + 0.5) / (checks + 0.5)) / meanInterval;
+        // a page never seen changing still gets checked, less often the longer it stays the same
+        return Math.max(rate, 0.5 / interval);
+    }
+
+    // keeps the budget pages most likely to have changed, in that order
+    private List<Candidate> select(GraphDatabaseService db, Label label, String urlProperty, long now) {
+        Comparator<Candidate> byProbability = Comparator.comparingDouble(c -> c.probability);
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Math.max(1, budget), byProbability);
+        // the writer finds the nodes through the url map, which may not have seen them yet
+        UrlNodeIndex urls = UrlNodeIndex.of(label, urlProperty);
+        try (ResourceIterator<Node> nodes = db.findNodes(label)) {
+            while (nodes.hasNext()) {
+                Node node = nodes.next();
+                Object url = node.getProperty(urlProperty, null);
+                if (!(url instanceof String)) {
+                    continue;
+                }
+                urls.put((String) url, node.getId());
+                candidates++;
+                Candidate candidate = candidate(node, (String) url, now);
+                if (budget == 0 || candidate.probability < minProbability) {
+                    continue;
+                }
+                if (best.size() < budget) {
+                    best.add(candidate);
+                } else if (candidate.probability > best.peek().probability) {
+                    best.poll();
+                    best.add(candidate);
+                }
+            }
+        }
+        List<Candidate> selected = new ArrayList<>(best);
+        selected.sort(byProbability.reversed());
+        return selected;
+    }
+
+    private static Candidate candidate(Node node, String url, long now) {
+        Long fetchedAt = longProperty(node, "fetchedAt");
+        Long firstFetchedAt = longProperty(node, "firstFetchedAt");
+        String contentHash = (String) node.getProperty("contentHash", null);
+        Long checks = longProperty(node, "checks");
+        Long changes = longProperty(node, "changes");
+        double probability;
+        if (fetchedAt == null || contentHash == null) {
+            // never fetched, or never hashed: nothing to compare against yet
+            probability = 1.0;
+        } else {
+            double rate = changeRate(checks == null ? 0 : checks, changes == null ? 0 : changes,
+                  fetchedAt - (firstFetchedAt == null ? fetchedAt : firstFetchedAt));
+            probability = 1 - Math.exp(-rate * Math.max(0, now - fetchedAt));
+        }
+        return new Candidate(url, probability, (String) node.getProperty("etag", null),
+              (String) node.getProperty("lastModified", null), contentHash,
+              checks == null ? 0 : checks, changes == null ? 0 : changes, firstFetchedAt);
+    }
+
+    private static Long longProperty(Node node, String name) {
+        Object value = node.getProperty(name, null);
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    private Checked check(Candidate page) {
+        FetchOptions request = options.copy();
+        // without a stored hash a 304 would leave nothing to compare with
+        if (page.contentHash != null) {
+            if (page.etag != null) {
+                request.header("If-None-Match", page.etag);
+            }
+            if (page.lastModified != null) {
+                request.header("If-Modified-Since", page.lastModified);
+            }
+        }
+        try (HttpResponse response = fetcher.fetch(page.url, request)) {
+            Long status = (long) response.status();
+            String etag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
+            if (response.status() == 304) {
+                return new Checked(page, status, true, page.contentHash,
+                      etag != null ? etag : page.etag, lastModified != null ? lastModified : page.lastModified, null);
+            }
+            Document doc = Jsoup.parse(BodyReader.limit(response.body(), options.maxBodySize(), response.url()),
+                  response.charset(), response.url());
+            return new Checked(page, status, false, hash(doc), etag, lastModified, null);
+        } catch (HttpStatusException e) {
+            return new Checked(page, (long) e.getStatusCode(), false, null, null, null, e.getMessage());
+        } catch (Exception e) {
+            return new Checked(page, null, false, null, null, null,
+                  e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private void write(Checked checked) {
+        pages++;
+        Candidate page = checked.page;
+        long now = System.currentTimeMillis();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("fetchedAt", now);
+        properties.put("status", checked.status);
+        if (checked.error != null) {
+            errors++;
+            properties.put("error", checked.error);
+            writer.mergePage(page.url, properties);
+            return;
+        }
+
+        // an empty error replaces the error of an earlier failed refresh
+        properties.put("error", "");
+        properties.put("etag", checked.etag);
+        properties.put("lastModified", checked.lastModified);
+        properties.put("contentHash", checked.contentHash);
+        if (page.contentHash == null) {
+            // the first hash of the page starts its history
+            properties.put("firstFetchedAt", now);
+            properties.put("checks", 0L);
+            properties.put("changes", 0L);
+            properties.put("changeRate", changeRate(0, 0, 0) * TimeUnit.DAYS.toMillis(1));
+            writer.mergePage(page.url, properties);
+            return;
+        }
+
+        boolean change = !checked.notModified && !checked.contentHash.equals(page.contentHash);
+        long checks = page.checks + 1;
+        long changes = page.changes + (change ? 1 : 0);
+        if (change) {
+            changed++;
+            properties.put("changedAt", now);
+        } else {
+            unchanged++;
+        }
+        long first = page.firstFetchedAt == null ? now : page.firstFetchedAt;
+        properties.put("checks", checks);
+        properties.put("changes", changes);
+        properties.put("changeRate", changeRate(checks, changes, now - first) * TimeUnit.DAYS.toMillis(1));
+        writer.mergePage(page.url, properties);
+    }
+
+    private String hash(Document doc) throws NoSuchAlgorithmException {
+        CustomHtmlToPlainText formatter = new CustomHtmlToPlainText(0);
+        StringBuilder text = new StringBuilder();
+        if (contentSelector == null) {
+            formatter.appendPlainText(doc, text);
+        } else {
+            ElementIterator elements = new ElementIterator(doc, contentSelector);
+            while (elements.hasNext()) {
+                Element element = elements.next();
+                formatter.appendPlainText(element, text);
+            }
+        }
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static Checked take(CompletionService<Checked> completion) {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while refreshing pages", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package scraper.graph;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
+
+/**
+ * Plugin wide map from the 64 bit hash of a page url to the id of its node,
+ * one per label and url property, so that writing links does not look up
+ * every url in the schema index of the graph.
+ * <p>
+ * The map is an open addressing hash table with linear probing in a direct
+ * buffer outside of the heap, 16 bytes per entry, doubled when half full.
+ * It is filled with every page node of the label on first use and kept
+ * current by the writers, so an url without an entry has no node and is not
+ * looked up in the graph, unless the caller asks for it to find nodes created
+ * outside of the plugin since. Entries are only hints: the node an entry
+ * points to is checked to still exist and to have the url, and the graph is
+ * asked when it does not, which catches deleted nodes, rolled back batches
+ * and hash collisions alike. Once the table is full every miss is looked up.
+ */
+public class UrlNodeIndex {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // 16 bytes per entry, at most 1 GB
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final long EMPTY = 0;
+
+    private static final ConcurrentMap<String, UrlNodeIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final Label label;
+    private final String urlProperty;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private ByteBuffer table = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 16);
+    private int capacity = INITIAL_CAPACITY;
+    private int size = 0;
+    private boolean warmed = false;
+    // an url was left out, so a missing entry no longer means a missing node
+    private boolean full = false;
+
+    UrlNodeIndex(Label label, String urlProperty) {
+        this.label = label;
+        this.urlProperty = urlProperty;
+    }
+
+    /**
+     * @return the shared index of the page nodes of a label
+     */
+    public static UrlNodeIndex of(Label label, String urlProperty) {
+        return INDEXES.computeIfAbsent(label.name() + '\u0000' + urlProperty,
+              key -> new UrlNodeIndex(label, urlProperty));
+    }
+
+    /**
+     * Drop every index, they are filled again on their next use.
+     */
+    public static void clearAll() {
+        INDEXES.clear();
+    }
+
+    public static long totalHits() {
+        return INDEXES.values().stream().mapToLong(index -> index.hits.sum()).sum();
+    }
+
+    public static long totalMisses() {
+        return INDEXES.values().stream().mapToLong(index -> index.misses.sum()).sum();
+    }
+
+    /**
+     * Find the page node of an url, in the transaction of the caller.
+     *
+     * @param lookupMisses whether to look up an url without an entry in the
+     *                     graph, for nodes created outside of the plugin
+     * @return the node, or null if there is none
+     */
+    public Node find(GraphDatabaseService db, String url, boolean lookupMisses) {
+        long hash = hash(url);
+        long id;
+        boolean complete;
+        synchronized (this) {
+            if (!warmed) {
+                warm(db);
+            }
+            id = get(hash);
+            complete = !full;
+        }
+        if (id < 0 && complete && !lookupMisses) {
+            misses.increment();
+            return null;
+        }
+        if (id >= 0) {
+            try {
+                Node node = db.getNodeById(id);
+                if (node.hasLabel(label) && url.equals(node.getProperty(urlProperty, null))) {
+                    hits.increment();
+                    return node;
+                }
+            } catch (NotFoundException e) {
+                // deleted since it was indexed
+            }
+        }
+        misses.increment();
+        Node node = db.findNode(label, urlProperty, url);
+        if (node != null) {
+            put(hash, node.getId());
+        }
+        return node;
+    }
+
+    /**
+     * Remember the node of an url, like one that was just created.
+     */
+    public synchronized void put(String url, long nodeId) {
+        put(hash(url), nodeId);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return a 64 bit hash of an url, never 0
+     */
+    static long hash(String url) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            h = (h ^ url.charAt(i)) * 0x100000001b3L;
+        }
+        // the finalizer of MurmurHash3 spreads the bits for the probing
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1 : h;
+    }
+
+    private void warm(GraphDatabaseService db) {
+        try (ResourceIterator<Node> nodes = db.findNodes(label)) {
+            while (nodes.hasNext()) {
+                Node node = nodes.next();
+                Object url = node.getProperty(urlProperty, null);
+                if (url instanceof String) {
+                    put(hash((String) url), node.getId());
+                }
+            }
+        }
+        warmed = true;
+    }
+
+    private synchronized long get(long hash) {
+        int mask = capacity - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long key = table.getLong(slot * 16);
+            if (key == EMPTY) {
+                return -1;
+            }
+            if (key == hash) {
+                return table.getLong(slot * 16 + 8);
+            }
+        }
+    }
+
+    private synchronized void put(long hash, long nodeId) {
+        if (size >= capacity / 2) {
+            if (capacity == MAX_CAPACITY) {
+                // full, further urls are looked up in the graph
+                full = true;
+                return;
+            }
+            resize(capacity * 2);
+        }
+        int mask = capacity - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long key = table.getLong(slot * 16);
+            if (key == EMPTY || key == hash) {
+                if (key == EMPTY) {
+                    size++;
+                }
+                table.putLong(slot * 16, hash);
+                table.putLong(slot * 16 + 8, nodeId);
+                return;
+            }
+        }
+    }
+
+    private void resize(int newCapacity) {
+        ByteBuffer old = table;
+        int oldCapacity = capacity;
+        table = ByteBuffer.allocateDirect(newCapacity * 16);
+        capacity = newCapacity;
+        size = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long key = old.getLong(slot * 16);
+            if (key != EMPTY) {
+                put(key, old.getLong(slot * 16 + 8));
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package scraper.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads response bodies with a size limit and the right charset.
+ * <p>
+ * The charset comes from the Content-Type header, a byte order mark or a meta
+ * tag near the start of the document, in that order, and defaults to UTF-8.
+ * Bodies are read into a per thread buffer that is reused between calls, and
+ * reading stops as soon as the limit is passed instead of after the whole
+ * body arrived.
+ */
+public class BodyReader {
+
+    public static final int DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+    // the html spec looks for a meta charset in the first 1024 bytes, jsoup in the first 5000
+    private static final int SNIFF_SIZE = 5000;
+    private static final int INITIAL_BUFFER = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+    private static final int MAX_BUFFER = Integer.MAX_VALUE - 8;
+    private static final Pattern META_CHARSET = Pattern.compile(
+          "(?i)<meta[^>]+charset\\s*=\\s*[\"']?\\s*([a-z0-9_:.\\-]+)");
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER];
+        }
+    };
+
+    private BodyReader() {
+    }
+
+    /**
+     * Read the whole body of a response as a String, without changing it, and
+     * close the response.
+     *
+     * @param response    the response to read
+     * @param maxBodySize the maximum number of bytes to read, 0 for no limit
+     * @return the decoded body
+     * @throws IOException if reading fails or the body is larger than the limit
+     */
+    public static String read(HttpResponse response, int maxBodySize) throws IOException {
+        byte[] buffer = BUFFER.get();
+        int length = 0;
+        try (InputStream in = response.body()) {
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (maxBodySize > 0 && length > maxBodySize) {
+                    throw tooLarge(response.url(), maxBodySize);
+                }
+                if (length == buffer.length) {
+                    buffer = grow(buffer, maxBodySize, response.url());
+                }
+            }
+
+            Charset charset = charset(buffer, length, response.charset());
+            int bom = bomLength(buffer, length);
+            return new String(buffer, bom, length - bom, charset);
+        } finally {
+            // keep the buffer for the next call on this thread, unless it grew large
+            BUFFER.set(buffer.length <= MAX_RETAINED_BUFFER ? buffer : new byte[INITIAL_BUFFER]);
+        }
+    }
+
+    /**
+     * Read the whole body of a response into memory and close the response,
+     * so that it can be parsed later without waiting for the network.
+     *
+     * @param response    the response to read
+     * @param maxBodySize the maximum number of bytes to read, 0 for no limit
+     * @return the response, reading its body from memory
+     * @throws IOException if reading fails or the body is larger than the limit
+     */
+    public static HttpResponse buffer(HttpResponse response, int maxBodySize) throws IOException {
+        byte[] buffer = new byte[maxBodySize > 0 ? Math.min(INITIAL_BUFFER, maxBodySize + 1) : INITIAL_BUFFER];
+        int length = 0;
+        try (InputStream in = response.body()) {
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (maxBodySize > 0 && length > maxBodySize) {
+                    throw tooLarge(response.url(), maxBodySize);
+                }
+                if (length == buffer.length) {
+                    buffer = grow(buffer, maxBodySize, response.url());
+                }
+            }
+        }
+        return response.withBody(new ByteArrayInputStream(buffer, 0, length));
+    }
+
+    /**
+     * Detect the charset of a stream without consuming it.
+     *
+     * @param in            a stream supporting mark and reset
+     * @param headerCharset the charset of the Content-Type header, or null
+     * @return the charset to decode the stream with
+     */
+    public static Charset charset(BufferedInputStream in, String headerCharset) throws IOException {
+        if (headerCharset != null) {
+            return Charset.forName(headerCharset);
+        }
+        byte[] head = new byte[SNIFF_SIZE];
+        in.mark(SNIFF_SIZE);
+        int length = 0;
+        int read;
+        while (length < SNIFF_SIZE && (read = in.read(head, length, SNIFF_SIZE - length)) != -1) {
+            length += read;
+        }
+        in.reset();
+        return charset(head, length, null);
+    }
+
+    /**
+     * Limit the number of bytes that can be read from a stream.
+     *
+     * @param in          the stream to limit
+     * @param maxBodySize the maximum number of bytes, 0 for no limit
+     * @param url         the url of the body, for the error message
+     * @return a stream failing once more than maxBodySize bytes were read
+     */
+    public static InputStream limit(InputStream in, int maxBodySize, String url) {
+        if (maxBodySize <= 0) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            private long count = 0;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    count(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    count(read);
+                }
+                return read;
+            }
+
+            private void count(int read) throws IOException {
+                count += read;
+                if (count > maxBodySize) {
+                    throw tooLarge(url, maxBodySize);
+                }
+            }
+        };
+    }
+
+    static Charset charset(byte[] data, int length, String headerCharset) {
+        if (headerCharset != null) {
+            return Charset.forName(headerCharset);
+        }
+        if (length >= 3 && (data[0] & 0xff) == 0xef && (data[1] & 0xff) == 0xbb && (data[2] & 0xff) == 0xbf) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (data[0] & 0xff) == 0xfe && (data[1] & 0xff) == 0xff) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (length >= 2 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xfe) {
+            return StandardCharsets.UTF_16LE;
+        }
+
+        // ISO-8859-1 maps every byte to one char, good enough to find ascii markup
+        Matcher m = META_CHARSET.matcher(new String(data, 0, Math.min(length, SNIFF_SIZE),
+              StandardCharsets.ISO_8859_1));
+        if (m.find()) {
+            try {
+                Charset charset = Charset.forName(m.group(1));
+                // a document that could be read up to its meta tag is not utf-16
+                return charset.name().startsWith("UTF-16") ? StandardCharsets.UTF_8 : charset;
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                // unknown name, use the default
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static int bomLength(byte[] data, int length) {
+        if (length >= 3 && (data[0] & 0xff) == 0xef && (data[1] & 0xff) == 0xbb && (data[2] & 0xff) == 0xbf) {
+            return 3;
+        }
+        if (length >= 2 && ((data[0] & 0xff) == 0xfe && (data[1] & 0xff) == 0xff
+              || (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xfe)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    private static byte[] grow(byte[] buffer, int maxBodySize, String url) throws IOException {
+        byte[] grown = new byte[grownSize(buffer.length, maxBodySize, url)];
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        return grown;
+    }
+
+    // the size of a full buffer of the given length after growing it
+    static int grownSize(int length, int maxBodySize, String url) throws IOException {
+        long size = (long) length * 2;
+        if (maxBodySize > 0) {
+            // one byte more than the limit, to notice a body passing it
+            size = Math.min(size, (long) maxBodySize + 1);
+        }
+        size = Math.min(size, MAX_BUFFER);
+        if (size <= length) {
+            // even without a limit a body has to fit in an array
+            throw tooLarge(url, length);
+        }
+        return (int) size;
+    }
+
+    private static IOException tooLarge(String url, int maxBodySize) {
+        return new IOException("The body of " + url + " is larger than the maximum of " +
+              maxBodySize + " bytes");
+    }
+}
@@ -0,0 +1,143 @@
+package scraper.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import scraper.util.ScraperConfig;
+
+/**
+ * Plugin wide health of the hosts, shared by every request of
+ * {@link HttpFetcher}, so that a host that is down costs one timeout
+ * instead of one per url.
+ * <p>
+ * After {@code failureThreshold} requests to a host fail in a row, with a
+ * connection error, a timeout or a 5xx status, the breaker of the host
+ * opens: requests to it fail at once with a
+ * {@link HostUnavailableException} for {@code openMillis}. Then a single
+ * request is let through as a probe while the others keep failing fast;
+ * if the probe succeeds the breaker closes, otherwise it opens again. Any
+ * response below 500 counts as a success.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static class Host {
+        State state = State.CLOSED;
+        int failures = 0;
+        long openUntil = 0;
+    }
+
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long openMillis = DEFAULT_OPEN_MILLIS;
+
+    /**
+     * Ask to send a request to a host.
+     *
+     * @throws HostUnavailableException if the breaker of the host is open,
+     *                                  or half open with its probe under way
+     */
+    public void check(String host) throws HostUnavailableException {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        Host state = hosts.get(host);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            long now = System.nanoTime();
+            switch (state.state) {
+                case OPEN:
+                    if (now - state.openUntil < 0) {
+                        throw new HostUnavailableException(host,
+                              TimeUnit.NANOSECONDS.toMillis(state.openUntil - now));
+                    }
+                    // this request is the probe
+                    state.state = State.HALF_OPEN;
+                    state.openUntil = now + TimeUnit.MILLISECONDS.toNanos(openMillis);
+                    return;
+                case HALF_OPEN:
+                    // a probe that never reported back is replaced after openMillis
+                    if (now - state.openUntil < 0) {
+                        throw new HostUnavailableException(host, 0);
+                    }
+                    state.openUntil = now + TimeUnit.MILLISECONDS.toNanos(openMillis);
+                    return;
+                default:
+                    return;
+            }
+        }
+    }
+
+    public void success(String host) {
+        Host state = hosts.get(host);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.state = State.CLOSED;
+            state.failures = 0;
+        }
+    }
+
+    public void failure(String host) {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        Host state = hosts.computeIfAbsent(host, h -> new Host());
+        synchronized (state) {
+            state.failures++;
+            if (state.state == State.HALF_OPEN || state.failures >= failureThreshold) {
+                state.state = State.OPEN;
+                state.openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(openMillis);
+            }
+        }
+    }
+
+    /**
+     * @return whether requests to a host currently fail fast
+     */
+    public boolean isOpen(String host) {
+        Host state = hosts.get(host);
+        if (state == null) {
+            return false;
+        }
+        synchronized (state) {
+            return state.state != State.CLOSED && System.nanoTime() - state.openUntil < 0;
+        }
+    }
+
+    /**
+     * Change the settings given in the map; every other setting stays.
+     * Config: failureThreshold (0 turns the breaker off), openMillis and
+     * closeBreakers, which closes the breaker of every host.
+     */
+    public void configure(Map<String, Object> settings) {
+        ScraperConfig conf = new ScraperConfig(settings);
+        failureThreshold = (int) conf.getLong("failureThreshold", failureThreshold);
+        openMillis = conf.getLong("openMillis", openMillis);
+        if (conf.getBoolean("closeBreakers", false)) {
+            hosts.clear();
+        }
+    }
+
+    public Map<String, Object> settings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("failureThreshold", (long) failureThreshold);
+        settings.put("openMillis", openMillis);
+        settings.put("openHosts", hosts.keySet().stream().filter(this::isOpen).sorted()
+              .collect(Collectors.toList()));
+        return settings;
+    }
+}
@@ -0,0 +1,148 @@
+package scraper.http;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per request settings of {@link HttpFetcher}.
+ */
+public class FetchOptions {
+
+    private String userAgent = "Mozilla";
+    private int connectTimeout = 1000;
+    private int readTimeout = 1000;
+    private boolean ignoreHttpErrors = false;
+    private boolean ignoreContentType = false;
+    private int maxRedirects = 20;
+    private int maxBodySize = BodyReader.DEFAULT_MAX_BODY_SIZE;
+    private int retries = 0;
+    private int backoff = 200;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    public FetchOptions userAgent(String userAgent) {
+        this.userAgent = userAgent;
+        return this;
+    }
+
+    /**
+     * Set both the connect and the read timeout.
+     */
+    public FetchOptions timeout(int millis) {
+        this.connectTimeout = millis;
+        this.readTimeout = millis;
+        return this;
+    }
+
+    public FetchOptions connectTimeout(int millis) {
+        this.connectTimeout = millis;
+        return this;
+    }
+
+    public FetchOptions readTimeout(int millis) {
+        this.readTimeout = millis;
+        return this;
+    }
+
+    public FetchOptions ignoreHttpErrors(boolean ignoreHttpErrors) {
+        this.ignoreHttpErrors = ignoreHttpErrors;
+        return this;
+    }
+
+    public FetchOptions ignoreContentType(boolean ignoreContentType) {
+        this.ignoreContentType = ignoreContentType;
+        return this;
+    }
+
+    public FetchOptions maxRedirects(int maxRedirects) {
+        this.maxRedirects = maxRedirects;
+        return this;
+    }
+
+    /**
+     * @param maxBodySize the maximum number of bytes to read, 0 for no limit
+     */
+    public FetchOptions maxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * @param retries how many times a request failing with a connection
+     *                error, a timeout, a 408, 429 or 5xx status is sent again
+     */
+    public FetchOptions retries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * @param millis the base of the exponential backoff between retries
+     */
+    public FetchOptions backoff(int millis) {
+        this.backoff = millis;
+        return this;
+    }
+
+    /**
+     * @return new options with the same settings and headers
+     */
+    public FetchOptions copy() {
+        FetchOptions copy = new FetchOptions().userAgent(userAgent)
+              .connectTimeout(connectTimeout)
+              .readTimeout(readTimeout)
+              .ignoreHttpErrors(ignoreHttpErrors)
+              .ignoreContentType(ignoreContentType)
+              .maxRedirects(maxRedirects)
+              .maxBodySize(maxBodySize)
+              .retries(retries)
+              .backoff(backoff);
+        copy.headers.putAll(headers);
+        return copy;
+    }
+
+    public FetchOptions header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public String userAgent() {
+        return userAgent;
+    }
+
+    public int connectTimeout() {
+        return connectTimeout;
+    }
+
+    public int readTimeout() {
+        return readTimeout;
+    }
+
+    public boolean ignoreHttpErrors() {
+        return ignoreHttpErrors;
+    }
+
+    public boolean ignoreContentType() {
+        return ignoreContentType;
+    }
+
+    public int maxRedirects() {
+        return maxRedirects;
+    }
+
+    public int maxBodySize() {
+        return maxBodySize;
+    }
+
+    public int retries() {
+        return retries;
+    }
+
+    public int backoff() {
+        return backoff;
+    }
+
+    public Map<String, String> headers() {
+        return Collections.unmodifiableMap(headers);
+    }
+}
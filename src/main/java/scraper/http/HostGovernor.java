@@ -0,0 +1,292 @@
+package scraper.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import scraper.util.ScraperConfig;
+
+/**
+ * Plugin wide politeness rules per host, shared by every request of
+ * {@link HttpFetcher}.
+ * <p>
+ * A host gets at most {@code maxInFlight} concurrent requests, counted until
+ * the body of a response is read or closed, and requests are started at no
+ * more than {@code requestsPerSecond}, allowing bursts of {@code burst}
+ * requests. Callers over the limits wait in arrival order instead of
+ * failing. A {@code Retry-After} of a 429 or 503 response holds back all
+ * requests to the host until it passes, and the crawl-delay of the host's
+ * robots.txt, which is read once a day, slows the rate down further.
+ */
+public class HostGovernor {
+
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 5.0;
+    public static final int DEFAULT_BURST = 5;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final boolean DEFAULT_ROBOTS = true;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 60 * 1000;
+
+    private static final long ROBOTS_TTL = TimeUnit.DAYS.toNanos(1);
+
+    /**
+     * Reads the robots.txt of a host, without going through the governor.
+     */
+    public interface RobotsLoader {
+        /**
+         * @param robotsUrl the url of the robots.txt
+         * @param options   the options of the request that needs it, for the
+         *                  timeouts and the user agent
+         * @return the content of the robots.txt, or null if there is none
+         */
+        String load(String robotsUrl, FetchOptions options) throws IOException;
+    }
+
+    /**
+     * The right to send one request to a host. Release it once the response
+     * is done; releasing twice has no effect.
+     */
+    public static class Permit {
+        private final Semaphore inFlight;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Semaphore inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.release();
+            }
+        }
+    }
+
+    class Host {
+        final Semaphore inFlight = new Semaphore(maxInFlight, true);
+        final Object robotsLock = new Object();
+        // theoretical arrival time of the next request, in nanoTime
+        long nextStart = System.nanoTime();
+        long blockedUntil = nextStart;
+        volatile long crawlDelayNanos = 0;
+        volatile boolean robotsRead = false;
+        volatile long robotsExpireAt = 0;
+
+        // reserves the next start time, in arrival order, and returns the wait until then
+        synchronized long reserve(long now) {
+            long interval = Math.max(requestsPerSecond > 0 ? (long) (1e9 / requestsPerSecond) : 0,
+                  crawlDelayNanos);
+            long tolerance = crawlDelayNanos > 0 ? 0 : (Math.max(1, burst) - 1) * interval;
+            long theoretical = Math.max(nextStart, now);
+            long start = Math.max(theoretical - tolerance, now);
+            if (blockedUntil - start > 0) {
+                start = blockedUntil;
+            }
+            nextStart = Math.max(theoretical, start) + interval;
+            return start - now;
+        }
+
+        synchronized void block(long until) {
+            if (until - blockedUntil > 0) {
+                blockedUntil = until;
+            }
+        }
+    }
+
+    private final RobotsLoader robotsLoader;
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    private volatile double requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
+    private volatile int burst = DEFAULT_BURST;
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private volatile boolean robots = DEFAULT_ROBOTS;
+    private volatile long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    public HostGovernor(RobotsLoader robotsLoader) {
+        this.robotsLoader = robotsLoader;
+    }
+
+    /**
+     * Wait for the right to send a request to a host.
+     *
+     * @param host      the host name
+     * @param robotsUrl the robots.txt of the host
+     * @param options   the options of the request; the crawl-delay of its
+     *                  user agent applies, and the robots.txt is read with them
+     * @return the permit, to be released when the response is done
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public Permit acquire(String host, String robotsUrl, FetchOptions options) throws InterruptedIOException {
+        Host state = hosts.computeIfAbsent(host, h -> new Host());
+        if (robots) {
+            checkRobots(state, robotsUrl, options);
+        }
+        try {
+            state.inFlight.acquire();
+            Permit permit = new Permit(state.inFlight);
+            try {
+                long wait = state.reserve(System.nanoTime());
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            } catch (InterruptedException e) {
+                permit.release();
+                throw e;
+            }
+            return permit;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + host);
+        }
+    }
+
+    /**
+     * Hold back the requests to a host, as asked by a Retry-After header.
+     *
+     * @param retryAfter the value of the header, in seconds or as a date
+     */
+    public void retryAfter(String host, String retryAfter) {
+        long delayMillis = retryAfterMillis(retryAfter);
+        if (delayMillis <= 0) {
+            return;
+        }
+        delayMillis = Math.min(delayMillis, maxDelayMillis);
+        hosts.computeIfAbsent(host, h -> new Host())
+              .block(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    /**
+     * Change the settings given in the map; every other setting stays.
+     * Changing maxInFlight starts over with the state of every host.
+     */
+    public synchronized void configure(Map<String, Object> settings) {
+        ScraperConfig conf = new ScraperConfig(settings);
+        requestsPerSecond = conf.getDouble("requestsPerSecond", requestsPerSecond);
+        burst = (int) conf.getLong("burst", burst);
+        robots = conf.getBoolean("robots", robots);
+        maxDelayMillis = conf.getLong("maxDelay", maxDelayMillis);
+        int max = (int) conf.getLong("maxInFlight", maxInFlight);
+        if (max < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        if (max != maxInFlight) {
+            maxInFlight = max;
+            hosts.clear();
+        }
+    }
+
+    public Map<String, Object> settings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("requestsPerSecond", requestsPerSecond);
+        settings.put("burst", (long) burst);
+        settings.put("maxInFlight", (long) maxInFlight);
+        settings.put("robots", robots);
+        settings.put("maxDelay", maxDelayMillis);
+        return settings;
+    }
+
+    // one caller reads the robots.txt, the others of the same host wait for it
+    private void checkRobots(Host state, String robotsUrl, FetchOptions options) {
+        if (state.robotsRead && System.nanoTime() - state.robotsExpireAt < 0) {
+            return;
+        }
+        synchronized (state.robotsLock) {
+            if (state.robotsRead && System.nanoTime() - state.robotsExpireAt < 0) {
+                return;
+            }
+            long delayMillis = 0;
+            try {
+                String content = robotsLoader.load(robotsUrl, options);
+                if (content != null) {
+                    delayMillis = (long) (crawlDelay(content, options.userAgent()) * 1000);
+                }
+            } catch (IOException e) {
+                // an unreachable robots.txt sets no delay
+            }
+            state.crawlDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(delayMillis, maxDelayMillis));
+            state.robotsExpireAt = System.nanoTime() + ROBOTS_TTL;
+            state.robotsRead = true;
+        }
+    }
+
+    /**
+     * Find the crawl-delay of the group of a user agent in a robots.txt,
+     * falling back to the group of all agents.
+     *
+     * @return the delay in seconds, 0 if there is none
+     */
+    static double crawlDelay(String robotsTxt, String userAgent) {
+        String agent = userAgent.toLowerCase(Locale.ENGLISH);
+        double any = 0;
+        double own = -1;
+        boolean inAny = false;
+        boolean inOwn = false;
+        boolean groupStarted = false;
+        for (String line : robotsTxt.split("\r\n|\r|\n")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            String value = line.substring(colon + 1).trim();
+            if (key.equals("user-agent")) {
+                // consecutive user-agent lines share one group
+                if (groupStarted) {
+                    inAny = false;
+                    inOwn = false;
+                    groupStarted = false;
+                }
+                String name = value.toLowerCase(Locale.ENGLISH);
+                if (name.equals("*")) {
+                    inAny = true;
+                } else if (!agent.equals("*") && agent.contains(name)) {
+                    inOwn = true;
+                }
+                continue;
+            }
+            groupStarted = true;
+            if (key.equals("crawl-delay") && (inAny || inOwn)) {
+                try {
+                    double delay = Double.parseDouble(value);
+                    if (inOwn) {
+                        own = delay;
+                    } else {
+                        any = delay;
+                    }
+                } catch (NumberFormatException e) {
+                    // ignore a malformed delay
+                }
+            }
+        }
+        return Math.max(0, own >= 0 ? own : any);
+    }
+
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Long.parseLong(value) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                      .toInstant().toEpochMilli();
+                return date - System.currentTimeMillis();
+            } catch (DateTimeParseException dateException) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package scraper.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to a host whose circuit breaker is
+ * open, because its last requests failed.
+ */
+public class HostUnavailableException extends IOException {
+
+    private final String host;
+
+    public HostUnavailableException(String host, long retryInMillis) {
+        super("Host " + host + " is unavailable after repeated failures, retrying it in " +
+              retryInMillis + " ms");
+        this.host = host;
+    }
+
+    public String host() {
+        return host;
+    }
+}
@@ -0,0 +1,320 @@
+package scraper.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.jsoup.HttpStatusException;
+import org.jsoup.UnsupportedMimeTypeException;
+import scraper.metrics.Metrics;
+
+/**
+ * Shared HTTP layer of the url based procedures.
+ * <p>
+ * Requests go through {@link HttpURLConnection}, whose keep-alive cache keeps
+ * a pool of persistent connections per host (sized by the http.maxConnections
+ * system property) and whose SSL context caches TLS sessions. A connection
+ * only returns to the pool if its body is read to the end or closed, which
+ * {@link HttpResponse#close()} takes care of. Responses are requested with
+ * gzip and deflate encoding and decompressed while they are streamed.
+ * <p>
+ * Redirects are followed here instead of by the connection, so that a
+ * redirect from http to https works the same way as with Jsoup.
+ * <p>
+ * A request that fails with a connection error, a timeout or a 408, 429 or
+ * 5xx status is sent again up to {@link FetchOptions#retries()} times,
+ * after a random wait up to an exponential backoff. The
+ * {@link CircuitBreaker} stops sending requests to a host whose requests
+ * keep failing.
+ * <p>
+ * Every request is recorded in the {@link Metrics}: the wait for the
+ * {@link HostGovernor}, the dns lookup, the connect and the transfer of the
+ * body, the bytes received and the errors.
+ */
+public class HttpFetcher {
+
+    private static final Pattern XML_CONTENT_TYPE = Pattern.compile("(application|text)/\\w*\\+?xml.*");
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_ROBOTS_SIZE = 512 * 1024;
+    private static final long MAX_BACKOFF_MILLIS = 30 * 1000;
+
+    private final Metrics metrics;
+    private final HostGovernor governor = new HostGovernor(HttpFetcher::readRobots);
+    private final CircuitBreaker breaker = new CircuitBreaker();
+
+    public HttpFetcher(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public HostGovernor governor() {
+        return governor;
+    }
+
+    public CircuitBreaker breaker() {
+        return breaker;
+    }
+
+    /**
+     * Send a GET request and return the response once its headers arrived.
+     *
+     * @param url     the url to fetch
+     * @param options timeouts, headers and error handling
+     * @return the response, to be closed by the caller
+     * @throws HttpStatusException         on an error status, unless ignored
+     * @throws UnsupportedMimeTypeException on a non text content type, unless
+     *                                      ignored
+     * @throws HostUnavailableException     if the circuit breaker of the host
+     *                                      is open
+     * @throws IOException                 if the request fails, after the
+     *                                      retries
+     */
+    public HttpResponse fetch(String url, FetchOptions options) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return send(url, options);
+            } catch (IOException e) {
+                if (attempt >= options.retries() || !isRetryable(e)) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(backoffMillis(options.backoff(), attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + url);
+            }
+        }
+    }
+
+    private HttpResponse send(String url, FetchOptions options) throws IOException {
+        URL current = new URL(url);
+        for (int redirects = 0; ; redirects++) {
+            String protocol = current.getProtocol();
+            if (!protocol.equals("http") && !protocol.equals("https")) {
+                throw new MalformedURLException("Only http & https protocols supported");
+            }
+
+            String host = current.getHost().toLowerCase(Locale.ENGLISH);
+            try {
+                breaker.check(host);
+            } catch (HostUnavailableException e) {
+                metrics.error(host, e);
+                throw e;
+            }
+            metrics.request(host);
+            long queued = System.nanoTime();
+            HostGovernor.Permit permit;
+            try {
+                permit = governor.acquire(host, new URL(current, "/robots.txt").toString(), options);
+            } catch (IOException e) {
+                metrics.error(host, e);
+                throw e;
+            }
+            metrics.phase(Metrics.Phase.QUEUE, host, System.nanoTime() - queued);
+
+            boolean responded = false;
+            boolean answered = false;
+            try {
+                resolve(host);
+                HttpURLConnection conn = open(current, options);
+                long start = System.nanoTime();
+                conn.connect();
+                long connected = System.nanoTime();
+                metrics.phase(Metrics.Phase.CONNECT, host, connected - start);
+                int status = conn.getResponseCode();
+                long waitNanos = System.nanoTime() - connected;
+                answered = true;
+                if (status >= 500) {
+                    breaker.failure(host);
+                } else {
+                    breaker.success(host);
+                }
+
+                String location = conn.getHeaderField("Location");
+                if (location != null && isRedirect(status)) {
+                    discard(conn, status);
+                    metrics.phase(Metrics.Phase.TRANSFER, host, waitNanos);
+                    if (redirects >= options.maxRedirects()) {
+                        throw new IOException("Too many redirects occurred trying to load URL " + url);
+                    }
+                    current = new URL(current, location);
+                    continue;
+                }
+
+                if (status == 429 || status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    governor.retryAfter(host, conn.getHeaderField("Retry-After"));
+                }
+
+                if ((status < 200 || status >= 400) && !options.ignoreHttpErrors()) {
+                    discard(conn, status);
+                    throw new HttpStatusException("HTTP error fetching URL", status, current.toString());
+                }
+
+                String contentType = conn.getContentType();
+                if (contentType != null && !options.ignoreContentType() && !contentType.startsWith("text/")
+                      && !XML_CONTENT_TYPE.matcher(contentType).matches()) {
+                    discard(conn, status);
+                    throw new UnsupportedMimeTypeException("Unhandled content type. Must be text/*, " +
+                          "application/xml, or application/xhtml+xml", contentType, current.toString());
+                }
+
+                MeteredInputStream wire = new MeteredInputStream(stream(conn, status), metrics, host,
+                      waitNanos, permit);
+                HttpResponse response = new HttpResponse(current.toString(), status, conn.getHeaderFields(),
+                      decode(wire, conn.getContentEncoding()), wire);
+                responded = true;
+                return response;
+            } catch (IOException e) {
+                if (!answered) {
+                    breaker.failure(host);
+                }
+                metrics.error(host, e);
+                throw e;
+            } finally {
+                // a returned response releases the permit when its body is done
+                if (!responded) {
+                    permit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether a failed request may succeed when it is sent again
+     */
+    static boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatusCode();
+            return status == 408 || status == 429 || status >= 500;
+        }
+        return !(e instanceof HostUnavailableException || e instanceof UnsupportedMimeTypeException
+              || e instanceof MalformedURLException || e instanceof UnknownHostException
+              || Thread.currentThread().isInterrupted());
+    }
+
+    // full jitter: a random wait up to the exponential backoff, so that the
+    // retries of many rows failing together spread out instead of coming back at once
+    static long backoffMillis(int base, int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, (long) base << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    // the governor asks for robots.txt before the first request to a host; it is
+    // read directly, with the timeouts and user agent of that request
+    private static String readRobots(String robotsUrl, FetchOptions options) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(robotsUrl).openConnection();
+        conn.setConnectTimeout(options.connectTimeout());
+        conn.setReadTimeout(options.readTimeout());
+        conn.setRequestProperty("User-Agent", options.userAgent());
+        try {
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                discard(conn, conn.getResponseCode());
+                return null;
+            }
+            try (InputStream in = conn.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while (out.size() < MAX_ROBOTS_SIZE && (read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    // HttpURLConnection resolves through the JVM address cache, a lookup here
+    // fills that cache and shows how long the lookup takes
+    private void resolve(String host) throws UnknownHostException {
+        long start = System.nanoTime();
+        InetAddress.getAllByName(host);
+        metrics.phase(Metrics.Phase.DNS, host, System.nanoTime() - start);
+    }
+
+    private HttpURLConnection open(URL url, FetchOptions options) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setInstanceFollowRedirects(false);
+        conn.setUseCaches(false);
+        conn.setConnectTimeout(options.connectTimeout());
+        conn.setReadTimeout(options.readTimeout());
+        conn.setRequestProperty("User-Agent", options.userAgent());
+        conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        for (Map.Entry<String, String> header : options.headers().entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return conn;
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+              || status == HttpURLConnection.HTTP_SEE_OTHER || status == 307 || status == 308;
+    }
+
+    private static InputStream stream(HttpURLConnection conn, int status) throws IOException {
+        InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        return in == null ? new ByteArrayInputStream(new byte[0]) : in;
+    }
+
+    // reads the rest of an unwanted body, so the connection can be reused
+    private static void discard(HttpURLConnection conn, int status) {
+        try (InputStream in = stream(conn, status)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
+
+    static InputStream decode(InputStream in, String encoding) throws IOException {
+        if (encoding == null) {
+            return in;
+        }
+        switch (encoding.trim().toLowerCase(Locale.ENGLISH)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case "deflate":
+                // servers send either zlib wrapped or raw deflate data
+                PushbackInputStream pushback = new PushbackInputStream(in, 1);
+                int first = pushback.read();
+                if (first == -1) {
+                    return pushback;
+                }
+                pushback.unread(first);
+                boolean zlib = (first & 0x0f) == 8;
+                Inflater inflater = new Inflater(!zlib);
+                return new InflaterInputStream(pushback, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            default:
+                return in;
+        }
+    }
+}
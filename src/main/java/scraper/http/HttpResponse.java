@@ -0,0 +1,128 @@
+package scraper.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Response of {@link HttpFetcher}. The body is already decompressed and is
+ * read as a stream; close the response to hand the connection back to the
+ * keep-alive pool.
+ */
+public class HttpResponse implements Closeable {
+
+    private static final Pattern CHARSET = Pattern.compile("(?i)\\bcharset=\\s*\"?([^\\s;\"]*)");
+
+    private final String url;
+    private final int status;
+    private final Map<String, List<String>> headers;
+    private final InputStream body;
+    private final MeteredInputStream wire;
+
+    public HttpResponse(String url, int status, Map<String, List<String>> headers, InputStream body) {
+        this(url, status, headers, body, null);
+    }
+
+    HttpResponse(String url, int status, Map<String, List<String>> headers, InputStream body,
+          MeteredInputStream wire) {
+        this.url = url;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.wire = wire;
+    }
+
+    /**
+     * @return the url of the response, after following redirects
+     */
+    public String url() {
+        return url;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    /**
+     * @return the first value of a header, ignoring the case of its name
+     */
+    public String header(String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    public Map<String, List<String>> headers() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public String contentType() {
+        return header("Content-Type");
+    }
+
+    /**
+     * @return the supported charset named in the Content-Type header, or null
+     */
+    public String charset() {
+        return charsetFromContentType(contentType());
+    }
+
+    public InputStream body() {
+        return body;
+    }
+
+    /**
+     * @return the time spent waiting for the body from the network so far, to
+     * tell it apart from the time spent parsing while the body is streamed
+     */
+    public long transferNanos() {
+        return wire == null ? 0 : wire.readNanos();
+    }
+
+    /**
+     * @return a response with the same url, status, headers and transfer
+     * time, reading its body from another stream
+     */
+    public HttpResponse withBody(InputStream body) {
+        return new HttpResponse(url, status, headers, body, wire);
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+
+    static String charsetFromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        Matcher m = CHARSET.matcher(contentType);
+        if (!m.find()) {
+            return null;
+        }
+        String charset = m.group(1).trim().replace("charset=", "");
+        try {
+            if (Charset.isSupported(charset)) {
+                return charset;
+            }
+            charset = charset.toUpperCase(Locale.ENGLISH);
+            if (Charset.isSupported(charset)) {
+                return charset;
+            }
+        } catch (IllegalCharsetNameException e) {
+            // fall through, the charset is sniffed from the content
+        }
+        return null;
+    }
+}
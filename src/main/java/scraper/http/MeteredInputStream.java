@@ -0,0 +1,96 @@
+package scraper.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import scraper.metrics.Metrics;
+
+/**
+ * Counts the bytes of a response body as they arrive from the network and
+ * the time spent waiting for them. The transfer is reported to the metrics
+ * once, when the body is read to the end or closed, which also releases the
+ * permit of the {@link HostGovernor}.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private final Metrics metrics;
+    private final String host;
+    private final long waitNanos;
+    private final HostGovernor.Permit permit;
+    private long readNanos = 0;
+    private long bytes = 0;
+    private boolean reported = false;
+
+    /**
+     * @param waitNanos the time spent waiting for the response headers
+     */
+    MeteredInputStream(InputStream in, Metrics metrics, String host, long waitNanos,
+          HostGovernor.Permit permit) {
+        super(in);
+        this.metrics = metrics;
+        this.host = host;
+        this.waitNanos = waitNanos;
+        this.permit = permit;
+    }
+
+    /**
+     * @return the time spent in reads of the body so far
+     */
+    long readNanos() {
+        return readNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            int b = super.read();
+            count(b == -1 ? -1 : 1, start);
+            return b;
+        } catch (IOException e) {
+            metrics.error(host, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        try {
+            int read = super.read(b, off, len);
+            count(read, start);
+            return read;
+        } catch (IOException e) {
+            metrics.error(host, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            report();
+        }
+    }
+
+    private void count(int read, long start) {
+        readNanos += System.nanoTime() - start;
+        if (read == -1) {
+            report();
+        } else {
+            bytes += read;
+        }
+    }
+
+    private void report() {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        permit.release();
+        metrics.phase(Metrics.Phase.TRANSFER, host, waitNanos + readNanos);
+        metrics.bytesIn(host, bytes);
+    }
+}
@@ -0,0 +1,397 @@
+package scraper.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import scraper.result.StringResult;
+import scraper.util.DaemonThreadFactory;
+
+/**
+ * Process wide counters and latency histograms of the plugin.
+ * <p>
+ * Every procedure call is counted with its errors, rows and latency, where
+ * the latency runs until its result stream is exhausted or closed. Requests
+ * are split into phases: queue (waiting for the politeness limits of the
+ * host), dns (the lookup of the host), connect (opening the
+ * connection, close to zero when a pooled one is reused), transfer (waiting
+ * for the response and reading the body), parse (building the DOM) and
+ * serialize (producing the result rows). Network phases, bytes and errors are
+ * kept per host as well. Caches register their hit and miss counters, see
+ * {@link #cache}.
+ * <p>
+ * All counters are lock free, recording costs a few atomic increments.
+ */
+public class Metrics {
+
+    public enum Phase {
+        QUEUE, DNS, CONNECT, TRANSFER, PARSE, SERIALIZE;
+
+        String key() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * Produces the rows of a procedure call.
+     */
+    public interface Rows<T, E extends Exception> {
+        Stream<T> get() throws E;
+    }
+
+    // more hosts than this are counted together, a crawl can touch thousands
+    private static final int MAX_HOSTS = 1000;
+    private static final String OTHER_HOSTS = "other";
+
+    private static class ProcedureStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private static class HostStats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final Map<Phase, LatencyHistogram> phases = histograms();
+    }
+
+    private static class CacheStats {
+        final LongSupplier hits;
+        final LongSupplier misses;
+        volatile long hitsAtReset;
+        volatile long missesAtReset;
+
+        CacheStats(LongSupplier hits, LongSupplier misses) {
+            this.hits = hits;
+            this.misses = misses;
+        }
+    }
+
+    private final Map<Phase, LatencyHistogram> phases = histograms();
+    private final ConcurrentMap<String, ProcedureStats> procedures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HostStats> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CacheStats> caches = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder charsOut = new LongAdder();
+    private volatile long since = System.currentTimeMillis();
+
+    private ScheduledExecutorService logger;
+    private ScheduledFuture<?> logging;
+
+    /**
+     * Count a procedure call and track the stream of its rows.
+     *
+     * @param procedure the name of the procedure
+     * @param rows      produces the result stream of the call
+     * @return the same rows, counted as they are consumed
+     * @throws E if the rows can not be produced
+     */
+    public <T, E extends Exception> Stream<T> track(String procedure, Rows<T, E> rows) throws E {
+        ProcedureStats stats = procedures.computeIfAbsent(procedure, p -> new ProcedureStats());
+        stats.calls.increment();
+        long start = System.nanoTime();
+        Stream<T> stream;
+        try {
+            stream = rows.get();
+        } catch (Exception e) {
+            stats.errors.increment();
+            stats.latency.record(System.nanoTime() - start);
+            countError(e);
+            throw e;
+        }
+
+        TrackedIterator<T> tracked = new TrackedIterator<>(stream.iterator(), stats, start);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(tracked, Spliterator.ORDERED), false)
+              .onClose(() -> {
+                  tracked.finish();
+                  stream.close();
+              });
+    }
+
+    public void phase(Phase phase, String host, long nanos) {
+        phases.get(phase).record(nanos);
+        if (host != null) {
+            hostStats(host).phases.get(phase).record(nanos);
+        }
+    }
+
+    public void request(String host) {
+        hostStats(host).requests.increment();
+    }
+
+    public void bytesIn(String host, long bytes) {
+        bytesIn.add(bytes);
+        hostStats(host).bytesIn.add(bytes);
+    }
+
+    /**
+     * Count an error by the simple name of its class.
+     *
+     * @param host the host the error happened with, or null
+     */
+    public void error(String host, Throwable error) {
+        errors.computeIfAbsent(error.getClass().getSimpleName(), e -> new LongAdder()).increment();
+        if (host != null) {
+            hostStats(host).errors.increment();
+        }
+    }
+
+    /**
+     * Report the hit rate of a cache in the snapshots.
+     */
+    public void cache(String name, LongSupplier hits, LongSupplier misses) {
+        CacheStats stats = new CacheStats(hits, misses);
+        stats.hitsAtReset = hits.getAsLong();
+        stats.missesAtReset = misses.getAsLong();
+        caches.put(name, stats);
+    }
+
+    /**
+     * @return the counters since the last reset, as nested maps
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("since", since);
+        snapshot.put("bytesIn", bytesIn.sum());
+        snapshot.put("charsOut", charsOut.sum());
+        snapshot.put("phases", snapshot(phases));
+
+        Map<String, Object> procedureStats = new TreeMap<>();
+        for (Map.Entry<String, ProcedureStats> entry : procedures.entrySet()) {
+            ProcedureStats stats = entry.getValue();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("calls", stats.calls.sum());
+            map.put("errors", stats.errors.sum());
+            map.put("rows", stats.rows.sum());
+            map.put("latency", stats.latency.snapshot());
+            procedureStats.put(entry.getKey(), map);
+        }
+        snapshot.put("procedures", procedureStats);
+
+        Map<String, Object> hostStats = new TreeMap<>();
+        for (Map.Entry<String, HostStats> entry : hosts.entrySet()) {
+            HostStats stats = entry.getValue();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", stats.requests.sum());
+            map.put("errors", stats.errors.sum());
+            map.put("bytesIn", stats.bytesIn.sum());
+            map.putAll(snapshot(stats.phases));
+            hostStats.put(entry.getKey(), map);
+        }
+        snapshot.put("hosts", hostStats);
+
+        Map<String, Object> errorStats = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+            errorStats.put(entry.getKey(), entry.getValue().sum());
+        }
+        snapshot.put("errors", errorStats);
+
+        Map<String, Object> cacheStats = new TreeMap<>();
+        for (Map.Entry<String, CacheStats> entry : caches.entrySet()) {
+            CacheStats stats = entry.getValue();
+            long hits = stats.hits.getAsLong() - stats.hitsAtReset;
+            long misses = stats.misses.getAsLong() - stats.missesAtReset;
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("hits", hits);
+            map.put("misses", misses);
+            map.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+            cacheStats.put(entry.getKey(), map);
+        }
+        snapshot.put("caches", cacheStats);
+        return snapshot;
+    }
+
+    /**
+     * Set every counter back to zero.
+     */
+    public void reset() {
+        since = System.currentTimeMillis();
+        for (LatencyHistogram histogram : phases.values()) {
+            histogram.reset();
+        }
+        procedures.clear();
+        hosts.clear();
+        errors.clear();
+        for (CacheStats stats : caches.values()) {
+            stats.hitsAtReset = stats.hits.getAsLong();
+            stats.missesAtReset = stats.misses.getAsLong();
+        }
+        bytesIn.reset();
+        charsOut.reset();
+    }
+
+    /**
+     * @return one line with the totals and the latencies of the phases
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder("scraper stats:");
+        long calls = 0;
+        long failed = 0;
+        for (ProcedureStats stats : procedures.values()) {
+            calls += stats.calls.sum();
+            failed += stats.errors.sum();
+        }
+        summary.append(" calls=").append(calls).append(" errors=").append(failed)
+              .append(" bytesIn=").append(bytesIn.sum());
+        for (Phase phase : Phase.values()) {
+            Map<String, Object> histogram = phases.get(phase).snapshot();
+            summary.append(' ').append(phase.key()).append("[count=").append(histogram.get("count"))
+                  .append(" p50Ms=").append(histogram.get("p50Ms"))
+                  .append(" p99Ms=").append(histogram.get("p99Ms")).append(']');
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Write the {@link #summary} to a log at a fixed interval.
+     *
+     * @param intervalMillis the interval, 0 or less to stop logging
+     * @param log            receives the summary lines
+     */
+    public synchronized void logPeriodically(long intervalMillis, Consumer<String> log) {
+        if (logging != null) {
+            logging.cancel(false);
+            logging = null;
+        }
+        if (intervalMillis <= 0) {
+            return;
+        }
+        if (logger == null) {
+            logger = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("scraper-stats"));
+        }
+        logging = logger.scheduleAtFixedRate(() -> log.accept(summary()),
+              intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the host of an url, or an empty string if it has none
+     */
+    public static String hostOf(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return host == null ? "" : host.toLowerCase(Locale.ENGLISH);
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    private HostStats hostStats(String host) {
+        HostStats stats = hosts.get(host);
+        if (stats != null) {
+            return stats;
+        }
+        return hosts.computeIfAbsent(hosts.size() < MAX_HOSTS ? host : OTHER_HOSTS, h -> new HostStats());
+    }
+
+    // io errors of a call come from its requests, which counted them already
+    private void countError(Exception e) {
+        if (!(e instanceof IOException) && !(e instanceof UncheckedIOException)) {
+            error(null, e);
+        }
+    }
+
+    private static Map<Phase, LatencyHistogram> histograms() {
+        Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+        return histograms;
+    }
+
+    private static Map<String, Object> snapshot(Map<Phase, LatencyHistogram> histograms) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<Phase, LatencyHistogram> entry : histograms.entrySet()) {
+            if (entry.getValue().count() > 0) {
+                snapshot.put(entry.getKey().key(), entry.getValue().snapshot());
+            }
+        }
+        return snapshot;
+    }
+
+    // counts the rows and the time spent producing them, until the end or close of the stream
+    private class TrackedIterator<T> implements Iterator<T> {
+        private final Iterator<T> rows;
+        private final ProcedureStats stats;
+        private final long start;
+        private long produceNanos = 0;
+        private boolean finished = false;
+
+        TrackedIterator(Iterator<T> rows, ProcedureStats stats, long start) {
+            this.rows = rows;
+            this.stats = stats;
+            this.start = start;
+        }
+
+        @Override
+        public boolean hasNext() {
+            long begin = System.nanoTime();
+            try {
+                boolean hasNext = rows.hasNext();
+                produceNanos += System.nanoTime() - begin;
+                if (!hasNext) {
+                    finish();
+                }
+                return hasNext;
+            } catch (RuntimeException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public T next() {
+            long begin = System.nanoTime();
+            try {
+                T row = rows.next();
+                produceNanos += System.nanoTime() - begin;
+                stats.rows.increment();
+                if (row instanceof StringResult && ((StringResult) row).value != null) {
+                    charsOut.add(((StringResult) row).value.length());
+                }
+                return row;
+            } catch (RuntimeException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        private void fail(RuntimeException e) {
+            if (!finished) {
+                stats.errors.increment();
+                countError(e);
+            }
+            finish();
+        }
+
+        synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            stats.latency.record(System.nanoTime() - start);
+            phase(Phase.SERIALIZE, null, produceNanos);
+        }
+    }
+}
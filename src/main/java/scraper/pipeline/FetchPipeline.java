@@ -0,0 +1,230 @@
+package scraper.pipeline;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.procedure.TerminationGuard;
+import scraper.util.DaemonThreadFactory;
+
+/**
+ * Fetches a list of urls and processes the pages in two overlapping stages,
+ * handing the rows to the caller as an iterator.
+ * <p>
+ * The fetch stage runs on a pool of I/O threads and reads each page into
+ * memory; the process stage, parsing and selecting, runs on a ForkJoin pool
+ * sized to the processors and shared by every pipeline. So while one page
+ * is parsed, the next ones are already on their way.
+ * <p>
+ * At most {@code window} pages are fetched ahead of the caller: a fetch
+ * thread waits for a free slot before it sends a request, and a slot is
+ * freed when the caller takes the rows of a page. A caller that stops
+ * reading stops the fetching, and {@link #close()} cancels what is still
+ * pending. Rows come in the order their pages are done, not the order of
+ * the urls.
+ *
+ * @param <T> the fetched page
+ * @param <R> the rows of a page
+ */
+public class FetchPipeline<T, R> implements Iterator<R>, AutoCloseable {
+
+    private static final ForkJoinPool PROCESS_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+          pool -> {
+              ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+              thread.setName("scraper-parse-" + thread.getPoolIndex());
+              thread.setDaemon(true);
+              return thread;
+          }, null, false);
+
+    // how long the caller waits for a page before it checks for termination
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Fetches a page; runs on an I/O thread.
+     */
+    public interface Fetch<T> {
+        T fetch(String url) throws Exception;
+    }
+
+    /**
+     * Turns a fetched page into rows; runs on the process pool.
+     */
+    public interface Process<T, R> {
+        List<R> process(String url, T page) throws Exception;
+    }
+
+    /**
+     * Turns a page whose fetch or process failed into rows, or throws to end
+     * the iteration; runs on the caller thread.
+     */
+    public interface Failure<R> {
+        List<R> failed(String url, Exception error);
+    }
+
+    private static class Done<R> {
+        final String url;
+        final List<R> rows;
+        final Exception error;
+
+        Done(String url, List<R> rows, Exception error) {
+            this.url = url;
+            this.rows = rows;
+            this.error = error;
+        }
+    }
+
+    private final List<String> urls;
+    private final Fetch<T> fetch;
+    private final Process<T, R> process;
+    private final Failure<R> onError;
+    private final TerminationGuard guard;
+    private final ExecutorService fetchPool;
+    private final Semaphore window;
+    private final LinkedBlockingQueue<Done<R>> done = new LinkedBlockingQueue<>();
+
+    private volatile boolean closed = false;
+    private int remaining;
+    private Iterator<R> rows = Collections.emptyIterator();
+
+    /**
+     * @param urls        the urls to fetch
+     * @param fetch       the fetch stage
+     * @param process     the process stage
+     * @param onError     gives the rows of a page whose fetch or process
+     *                    failed
+     * @param concurrency the number of fetch threads
+     * @param window      the number of pages fetched ahead of the caller
+     * @param guard       stops the caller when the query is terminated, may
+     *                    be null
+     */
+    public FetchPipeline(List<String> urls, Fetch<T> fetch, Process<T, R> process,
+          Failure<R> onError, int concurrency, int window, TerminationGuard guard) {
+        this.urls = urls;
+        this.fetch = fetch;
+        this.process = process;
+        this.onError = onError;
+        this.guard = guard;
+        this.remaining = urls.size();
+        this.window = new Semaphore(Math.max(1, window));
+        this.fetchPool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, urls.size())),
+              new DaemonThreadFactory("scraper-fetch"));
+    }
+
+    /**
+     * Start fetching.
+     *
+     * @return this pipeline
+     */
+    public FetchPipeline<T, R> start() {
+        for (String url : urls) {
+            fetchPool.execute(() -> fetch(url));
+        }
+        fetchPool.shutdown();
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!rows.hasNext()) {
+            if (remaining == 0 || closed) {
+                return false;
+            }
+            Done<R> page = take();
+            remaining--;
+            window.release();
+            if (page.error == null) {
+                rows = page.rows.iterator();
+                continue;
+            }
+            try {
+                rows = onError.failed(page.url, page.error).iterator();
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public R next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return rows.next();
+    }
+
+    /**
+     * Stop fetching and drop the pages that are not taken yet. Requests in
+     * flight are interrupted, pages being processed are dropped when done.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        fetchPool.shutdownNow();
+        done.clear();
+    }
+
+    private void fetch(String url) {
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        T page;
+        try {
+            page = fetch.fetch(url);
+        } catch (Exception e) {
+            offer(new Done<>(url, null, e));
+            return;
+        }
+        PROCESS_POOL.execute(() -> {
+            if (closed) {
+                return;
+            }
+            try {
+                offer(new Done<>(url, process.process(url, page), null));
+            } catch (Exception e) {
+                offer(new Done<>(url, null, e));
+            }
+        });
+    }
+
+    // the queue never holds more than the window, offering does not block
+    private void offer(Done<R> page) {
+        if (!closed) {
+            done.offer(page);
+        }
+    }
+
+    private Done<R> take() {
+        try {
+            while (true) {
+                if (guard != null) {
+                    guard.check();
+                }
+                Done<R> page = done.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (page != null) {
+                    return page;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("Interrupted while fetching urls", e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package scraper.result;
+
+/**
+ * A single yes or no, like whether a selector matches.
+ */
+public class BooleanResult {
+
+    public final Boolean value;
+    public final String error;
+
+    public BooleanResult(Boolean value) {
+        this(value, null);
+    }
+
+    public BooleanResult(Boolean value, String error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static BooleanResult failed(String error) {
+        return new BooleanResult(null, error);
+    }
+}
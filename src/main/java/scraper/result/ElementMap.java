@@ -0,0 +1,145 @@
+package scraper.result;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Element;
+import scraper.util.UrlNormalizer;
+
+/**
+ * Read only map view of a Jsoup element. Values are computed only when they
+ * are read, and only the projected fields are part of the map, so expensive
+ * fields like html and outerHtml cost nothing unless they are asked for.
+ */
+public class ElementMap extends AbstractMap<String, Object> {
+
+    public static final Set<String> ALL_FIELDS = Collections.unmodifiableSet(
+          new LinkedHashSet<>(java.util.Arrays.asList("url", "text", "html",
+                "outerHtml", "data", "tagName", "id", "className", "classNames",
+                "attributes")));
+
+    private final String url;
+    private final Element element;
+    private final Set<String> fields;
+
+    /**
+     * @param url     the url of the document the element belongs to
+     * @param element the element to expose
+     * @param fields  the fields to expose, as returned by {@link #projection}
+     */
+    public ElementMap(String url, Element element, Set<String> fields) {
+        this.url = url;
+        this.element = element;
+        this.fields = fields;
+    }
+
+    /**
+     * Validate a requested projection against the known field names.
+     *
+     * @param fields requested fields, null or empty for all of them
+     * @return the fields in their canonical order
+     */
+    public static Set<String> projection(Collection<String> fields) {
+        if (fields == null || fields.isEmpty() || fields == ALL_FIELDS) {
+            return ALL_FIELDS;
+        }
+        Set<String> result = new LinkedHashSet<>();
+        for (String field : ALL_FIELDS) {
+            if (fields.contains(field)) {
+                result.add(field);
+            }
+        }
+        if (result.size() != new LinkedHashSet<>(fields).size()) {
+            throw new IllegalArgumentException("Unknown element field in " +
+                  fields + ", valid fields are " + ALL_FIELDS);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return fields.contains(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return fields.contains(key) ? compute((String) key) : null;
+    }
+
+    @Override
+    public int size() {
+        return fields.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                final Iterator<String> keys = fields.iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    public Entry<String, Object> next() {
+                        String key = keys.next();
+                        return new SimpleImmutableEntry<>(key, compute(key));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return fields.size();
+            }
+        };
+    }
+
+    private Object compute(String field) {
+        switch (field) {
+            case "url":
+                return url;
+            case "text":
+                return element.text();
+            case "html":
+                return element.html();
+            case "outerHtml":
+                return element.outerHtml();
+            case "data":
+                return element.data();
+            case "tagName":
+                return element.tagName();
+            case "id":
+                return element.id();
+            case "className":
+                return element.className();
+            case "classNames":
+                return element.classNames();
+            case "attributes":
+                return attributes();
+            default:
+                return null;
+        }
+    }
+
+    private Map<String, String> attributes() {
+        Map<String, String> attributes = new HashMap<>();
+        for (Attribute attr : element.attributes()) {
+            attributes.put(attr.getKey(), attr.getValue());
+            if (attr.getKey().equals("href")) {
+                String absHref = element.attr("abs:href");
+                attributes.put("abs:href", absHref);
+                attributes.put("canonical:href", absHref.isEmpty() ? "" : UrlNormalizer.canonicalize(absHref));
+            }
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,24 @@
+package scraper.result;
+
+import java.util.Map;
+
+/**
+ * One row of a batch fetch: either a plain value of the page, a matched
+ * element, or the error that prevented fetching it.
+ */
+public class FetchResult {
+
+    public final String url;
+    public final Long status;
+    public final String value;
+    public final Map element;
+    public final String error;
+
+    public FetchResult(String url, Long status, String value, Map element, String error) {
+        this.url = url;
+        this.status = status;
+        this.value = value;
+        this.element = element;
+        this.error = error;
+    }
+}
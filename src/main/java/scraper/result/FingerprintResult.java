@@ -0,0 +1,31 @@
+package scraper.result;
+
+/**
+ * The SimHash fingerprint of a page, and the closest page seen before within
+ * the asked distance, if any.
+ */
+public class FingerprintResult {
+
+    public final Long fingerprint;
+    public final String duplicateOf;
+    public final Long distance;
+    public final String error;
+
+    public FingerprintResult(Long fingerprint, String duplicateOf, Long distance) {
+        this(fingerprint, duplicateOf, distance, null);
+    }
+
+    public FingerprintResult(Long fingerprint, String duplicateOf, Long distance, String error) {
+        this.fingerprint = fingerprint;
+        this.duplicateOf = duplicateOf;
+        this.distance = distance;
+        this.error = error;
+    }
+
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static FingerprintResult failed(String error) {
+        return new FingerprintResult(null, null, null, error);
+    }
+}
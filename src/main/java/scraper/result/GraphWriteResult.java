@@ -0,0 +1,26 @@
+package scraper.result;
+
+/**
+ * Summary of a procedure that writes to the graph in batches.
+ */
+public class GraphWriteResult {
+
+    public final long pages;
+    public final long errors;
+    public final long nodes;
+    public final long relationships;
+    public final long properties;
+    public final long batches;
+    public final long timeMillis;
+
+    public GraphWriteResult(long pages, long errors, long nodes, long relationships,
+          long properties, long batches, long timeMillis) {
+        this.pages = pages;
+        this.errors = errors;
+        this.nodes = nodes;
+        this.relationships = relationships;
+        this.properties = properties;
+        this.batches = batches;
+        this.timeMillis = timeMillis;
+    }
+}
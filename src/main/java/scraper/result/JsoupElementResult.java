@@ -1,41 +1,39 @@
 package scraper.result;
 
-import org.jsoup.nodes.Attribute;
-import org.jsoup.nodes.Element;
-
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import org.jsoup.nodes.Element;
 
 /**
  * Created by Janos Szendi-Varga on 2019. 09. 02.
  */
 public class JsoupElementResult {
     
-    public Map element = new HashMap();
+    public Map element;
+    public String error;
+
+    private JsoupElementResult(String error) {
+        this.error = error;
+    }
 
     public JsoupElementResult(String url, Element jsoupElement) {
-        element.put("url",url);
-        element.put("text", jsoupElement.text());
-        element.put("html", jsoupElement.html());
-        element.put("outerHtml", jsoupElement.outerHtml());
-        element.put("data", jsoupElement.data());
-        element.put("tagName", jsoupElement.tagName());
-        element.put("id", jsoupElement.id());
-        element.put("className", jsoupElement.className());
-        element.put("classNames",jsoupElement.classNames());
+        this(url, jsoupElement, ElementMap.ALL_FIELDS);
+    }
 
-        Map attributes = new HashMap();
-        Iterator<Attribute> it = jsoupElement.attributes().iterator();
-        while (it.hasNext()) {
-            Attribute attr = it.next();
-            attributes.put(attr.getKey(), attr.getValue());
-            if(attr.getKey().equals("href")){
-                attributes.put("abs:"+attr.getKey(), jsoupElement.attr
-                        ("abs:href"));
-            }
-        }
-        element.put("attributes",attributes);
+    /**
+     * @param url          the url of the document
+     * @param jsoupElement the matched element
+     * @param fields       the element fields to return, see
+     *                     {@link ElementMap#projection}
+     */
+    public JsoupElementResult(String url, Element jsoupElement, Set<String> fields) {
+        element = new ElementMap(url, jsoupElement, fields);
+    }
 
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static JsoupElementResult failed(String error) {
+        return new JsoupElementResult(error);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,35 @@
+package scraper.result;
+
+/**
+ * A link found by the streaming link scanner. For media links href holds the
+ * value of the src attribute.
+ */
+public class LinkResult {
+
+    public final String tagName;
+    public final String href;
+    public final String absHref;
+    public final String text;
+    public final String rel;
+    public final String error;
+
+    public LinkResult(String tagName, String href, String absHref, String text, String rel) {
+        this(tagName, href, absHref, text, rel, null);
+    }
+
+    public LinkResult(String tagName, String href, String absHref, String text, String rel, String error) {
+        this.tagName = tagName;
+        this.href = href;
+        this.absHref = absHref;
+        this.text = text;
+        this.rel = rel;
+        this.error = error;
+    }
+
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static LinkResult failed(String error) {
+        return new LinkResult(null, null, null, null, null, error);
+    }
+}
@@ -0,0 +1,26 @@
+package scraper.result;
+
+/**
+ * A single number, like the count of matching elements.
+ */
+public class LongResult {
+
+    public final Long value;
+    public final String error;
+
+    public LongResult(Long value) {
+        this(value, null);
+    }
+
+    public LongResult(Long value, String error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static LongResult failed(String error) {
+        return new LongResult(null, error);
+    }
+}
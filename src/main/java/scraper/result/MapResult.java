@@ -0,0 +1,26 @@
+package scraper.result;
+
+import java.util.Map;
+
+public class MapResult {
+    public final static MapResult EMPTY = new MapResult(null);
+
+    public final Map<String, Object> value;
+    public final String error;
+
+    public MapResult(Map<String, Object> value) {
+        this(value, null);
+    }
+
+    public MapResult(Map<String, Object> value, String error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static MapResult failed(String error) {
+        return new MapResult(null, error);
+    }
+}
@@ -0,0 +1,28 @@
+package scraper.result;
+
+/**
+ * Summary of a refresh of stored pages.
+ */
+public class RefreshResult {
+
+    public final long candidates;
+    public final long pages;
+    public final long changed;
+    public final long unchanged;
+    public final long errors;
+    public final long properties;
+    public final long batches;
+    public final long timeMillis;
+
+    public RefreshResult(long candidates, long pages, long changed, long unchanged, long errors,
+          long properties, long batches, long timeMillis) {
+        this.candidates = candidates;
+        this.pages = pages;
+        this.changed = changed;
+        this.unchanged = unchanged;
+        this.errors = errors;
+        this.properties = properties;
+        this.batches = batches;
+        this.timeMillis = timeMillis;
+    }
+}
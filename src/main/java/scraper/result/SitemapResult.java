@@ -0,0 +1,20 @@
+package scraper.result;
+
+/**
+ * An url entry of a sitemap, or a sitemap entry of a sitemap index that is
+ * not followed.
+ */
+public class SitemapResult {
+
+    public final String loc;
+    public final String lastmod;
+    public final String changefreq;
+    public final Double priority;
+
+    public SitemapResult(String loc, String lastmod, String changefreq, Double priority) {
+        this.loc = loc;
+        this.lastmod = lastmod;
+        this.changefreq = changefreq;
+        this.priority = priority;
+    }
+}
@@ -7,8 +7,21 @@ public class StringResult {
     public final static StringResult EMPTY = new StringResult(null);
 
     public final String value;
+    public final String error;
 
     public StringResult(String value) {
+        this(value, null);
+    }
+
+    public StringResult(String value, String error) {
         this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static StringResult failed(String error) {
+        return new StringResult(null, error);
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package scraper.result;
+
+import java.util.Map;
+
+/**
+ * A row of a table, with its cells keyed by the headers of their columns.
+ */
+public class TableRowResult {
+
+    public final Long table;
+    public final Long row;
+    public final Map<String, Object> value;
+    public final String error;
+
+    public TableRowResult(Long table, Long row, Map<String, Object> value) {
+        this.table = table;
+        this.row = row;
+        this.value = value;
+        this.error = null;
+    }
+
+    private TableRowResult(String error) {
+        this.table = null;
+        this.row = null;
+        this.value = null;
+        this.error = error;
+    }
+
+    /**
+     * @return the row of a page that could not be fetched
+     */
+    public static TableRowResult failed(String error) {
+        return new TableRowResult(error);
+    }
+}
@@ -13,6 +13,21 @@ import org.jsoup.select.NodeVisitor;
  */
 public class CustomHtmlToPlainText {
 
+    public static final int DEFAULT_WIDTH = 80;
+
+    private final int maxWidth;
+
+    public CustomHtmlToPlainText() {
+        this(DEFAULT_WIDTH);
+    }
+
+    /**
+     * @param maxWidth the width to wrap lines at, 0 or less to not wrap at all
+     */
+    public CustomHtmlToPlainText(int maxWidth) {
+        this.maxWidth = maxWidth;
+    }
+
     /**
      * Format an Element to plain-text
      *
@@ -20,81 +35,151 @@ public class CustomHtmlToPlainText {
      * @return formatted text
      */
     public String getPlainText(Element element) {
-        FormattingVisitor formatter = new FormattingVisitor();
+        StringBuilder accum = new StringBuilder();
+        appendPlainText(element, accum);
+        return accum.toString();
+    }
+
+    /**
+     * Format an Element to plain-text, appending it to a buffer. The result is
+     * the same as appending {@link #getPlainText(Element)}.
+     *
+     * @param element the root element to format
+     * @param accum   the buffer to append to
+     */
+    public void appendPlainText(Element element, StringBuilder accum) {
+        FormattingVisitor formatter = new FormattingVisitor(accum);
         NodeTraversor traversor = new NodeTraversor(formatter);
         traversor.traverse(element); // walk the DOM, and call .head() and
         // .tail() for each node
-
-        return formatter.toString();
     }
 
     // the formatting rules, implemented in a breadth-first DOM traverse
     private class FormattingVisitor implements NodeVisitor {
-        private static final int maxWidth = 80;
         private int width = 0;
-        private StringBuilder accum = new StringBuilder(); // holds the
-        // accumulated text
+        private final StringBuilder accum; // holds the accumulated text
+        private final int start; // where the text of this visitor starts in accum
+        private final StringBuilder scratch = new StringBuilder(); // reused for text nodes
+
+        FormattingVisitor(StringBuilder accum) {
+            this.accum = accum;
+            this.start = accum.length();
+        }
 
         // hit when the node is first seen
         public void head(Node node, int depth) {
-            String name = node.nodeName();
-            if (node instanceof TextNode)
-                append(((TextNode) node).text()); // TextNodes carry all
-                // user-readable text in the DOM.
-            else if (name.equals("li"))
-                append("\n * ");
-            else if (name.equals("dt"))
-                append("  ");
-            else if (StringUtil.in(name, "p", "h1", "h2", "h3", "h4", "h5",
-                    "tr"))
-                append("\n");
+            if (node instanceof TextNode) {
+                // TextNodes carry all user-readable text in the DOM. Same as
+                // TextNode.text(), without allocating a String per node
+                scratch.setLength(0);
+                StringUtil.appendNormalisedWhitespace(scratch, ((TextNode) node).getWholeText(), false);
+                append(scratch);
+                return;
+            }
+            switch (node.nodeName()) {
+                case "li":
+                    append("\n * ");
+                    break;
+                case "dt":
+                    append("  ");
+                    break;
+                case "p":
+                case "h1":
+                case "h2":
+                case "h3":
+                case "h4":
+                case "h5":
+                case "tr":
+                    append("\n");
+                    break;
+                default:
+                    break;
+            }
         }
 
         // hit when all of the node's children (if any) have been visited
         public void tail(Node node, int depth) {
-            String name = node.nodeName();
-            if (StringUtil.in(name, "br", "dd", "dt", "p", "h1", "h2", "h3",
-                    "h4", "h5"))
-                append("\n");
-            else if (name.equals("a"))
-                return;
+            switch (node.nodeName()) {
+                case "br":
+                case "dd":
+                case "dt":
+                case "p":
+                case "h1":
+                case "h2":
+                case "h3":
+                case "h4":
+                case "h5":
+                    append("\n");
+                    break;
+                default:
+                    break;
+            }
         }
 
         // appends text to the string builder with a simple word wrap method
-        private void append(String text) {
-            if (text.startsWith("\n"))
+        private void append(CharSequence text) {
+            int length = text.length();
+            if (length > 0 && text.charAt(0) == '\n')
                 width = 0; // reset counter if starts with a newline. only
             // from formats above, not in natural text
-            if (text.equals(" ") &&
-                    (accum.length() == 0 || StringUtil.in(accum.substring
-                            (accum.length() - 1), " ", "\n")))
-                return; // don't accumulate long runs of empty spaces
-
-            if (text.length() + width > maxWidth) { // won't fit, needs to wrap
-                String words[] = text.split("\\s+");
-                for (int i = 0; i < words.length; i++) {
-                    String word = words[i];
-                    boolean last = i == words.length - 1;
-                    if (!last) // insert a space if not the last word
-                        word = word + " ";
-                    if (word.length() + width > maxWidth) { // wrap and reset
-                        // counter
-                        accum.append("\n").append(word);
-                        width = word.length();
-                    } else {
-                        accum.append(word);
-                        width += word.length();
-                    }
-                }
+            if (length == 1 && text.charAt(0) == ' ') {
+                if (accum.length() == start)
+                    return; // don't accumulate long runs of empty spaces
+                char last = accum.charAt(accum.length() - 1);
+                if (last == ' ' || last == '\n')
+                    return;
+            }
+
+            if (maxWidth > 0 && length + width > maxWidth) { // won't fit, needs to wrap
+                appendWrapped(text);
             } else { // fits as is, without need to wrap text
                 accum.append(text);
-                width += text.length();
+                width += length;
+            }
+        }
+
+        // wraps word by word, splitting on whitespace runs like
+        // String.split("\\s+"): a leading run gives an empty first word,
+        // trailing runs are dropped
+        private void appendWrapped(CharSequence text) {
+            int length = text.length();
+            if (length == 0) {
+                appendWord(text, 0, 0, true);
+                return;
+            }
+            int pos = 0;
+            while (true) {
+                int wordStart = pos;
+                while (pos < length && !isWhitespace(text.charAt(pos)))
+                    pos++;
+                int wordEnd = pos;
+                while (pos < length && isWhitespace(text.charAt(pos)))
+                    pos++;
+                boolean last = pos == length;
+                if (last && wordStart == wordEnd)
+                    return; // nothing but whitespace left
+                appendWord(text, wordStart, wordEnd, last);
+                if (last)
+                    return;
+            }
+        }
+
+        private void appendWord(CharSequence text, int wordStart, int wordEnd, boolean last) {
+            // insert a space if not the last word
+            int wordLength = wordEnd - wordStart + (last ? 0 : 1);
+            if (wordLength + width > maxWidth) { // wrap and reset counter
+                accum.append('\n');
+                width = wordLength;
+            } else {
+                width += wordLength;
             }
+            accum.append(text, wordStart, wordEnd);
+            if (!last)
+                accum.append(' ');
         }
 
-        @Override
-        public String toString() {
-            return accum.toString();
+        private boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
         }
     }
 
@@ -0,0 +1,86 @@
+package scraper.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Evaluator;
+
+/**
+ * Lazy, document ordered walk over the elements matching an evaluator.
+ * <p>
+ * Matches the same elements in the same order as {@code Element.select}, but
+ * only walks as much of the DOM as the consumer pulls, instead of collecting
+ * every match into an {@code Elements} list up front.
+ */
+public class ElementIterator implements Iterator<Element> {
+
+    private final Element root;
+    private final Evaluator evaluator;
+    private Node current;
+    private Element next;
+
+    public ElementIterator(Element root, Evaluator evaluator) {
+        this.root = root;
+        this.evaluator = evaluator;
+        this.current = null;
+        this.next = findNext();
+    }
+
+    /**
+     * @param root      the element to start from, included in the results
+     * @param evaluator the condition elements must match
+     * @return lazy stream of the matching elements
+     */
+    public static Stream<Element> stream(Element root, Evaluator evaluator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+              new ElementIterator(root, evaluator),
+              Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Element next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        Element result = next;
+        next = findNext();
+        return result;
+    }
+
+    private Element findNext() {
+        while (true) {
+            current = current == null ? root : following(current);
+            if (current == null) {
+                return null;
+            }
+            if (current instanceof Element && evaluator.matches(root, (Element) current)) {
+                return (Element) current;
+            }
+        }
+    }
+
+    // the next node in document order under root, or null at the end
+    private Node following(Node node) {
+        if (node.childNodeSize() > 0) {
+            return node.childNode(0);
+        }
+        while (node != root) {
+            Node sibling = node.nextSibling();
+            if (sibling != null) {
+                return sibling;
+            }
+            node = node.parentNode();
+        }
+        return null;
+    }
+}
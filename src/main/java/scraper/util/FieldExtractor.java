@@ -0,0 +1,40 @@
+package scraper.util;
+
+import org.jsoup.nodes.Element;
+
+/**
+ * Reads a single value of an element, named the same way as the fields of
+ * the element map: "text", "html", "outerHtml", "data", "tagName", "id" or
+ * "className", or "@name" for the value of an attribute ("@abs:href" gives
+ * the absolute url of a link).
+ */
+public class FieldExtractor {
+
+    private FieldExtractor() {
+    }
+
+    public static String value(Element element, String field) {
+        if (field.startsWith("@")) {
+            return element.attr(field.substring(1));
+        }
+        switch (field) {
+            case "text":
+                return element.text();
+            case "html":
+                return element.html();
+            case "outerHtml":
+                return element.outerHtml();
+            case "data":
+                return element.data();
+            case "tagName":
+                return element.tagName();
+            case "id":
+                return element.id();
+            case "className":
+                return element.className();
+            default:
+                throw new IllegalArgumentException("Unknown field '" + field + "', use text, html, " +
+                      "outerHtml, data, tagName, id, className or @attribute");
+        }
+    }
+}
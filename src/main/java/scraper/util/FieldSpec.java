@@ -0,0 +1,85 @@
+package scraper.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+
+/**
+ * A compiled field of a multi-field extraction, written as "selector" for the
+ * text of the first match, "selector@attribute" for one of its attributes,
+ * "@attribute" for an attribute of the row itself, or "" for the row's text.
+ */
+public class FieldSpec {
+
+    private final Evaluator evaluator;
+    private final String field;
+
+    public FieldSpec(String spec) {
+        int at = attributeSeparator(spec);
+        String selector = (at == -1 ? spec : spec.substring(0, at)).trim();
+        this.evaluator = selector.isEmpty() ? null : Selectors.select(selector);
+        this.field = at == -1 ? "text" : spec.substring(at);
+    }
+
+    /**
+     * Compile a map of field names to field specs.
+     */
+    public static Map<String, FieldSpec> compile(Map<String, Object> specs) {
+        Map<String, FieldSpec> compiled = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> spec : specs.entrySet()) {
+            compiled.put(spec.getKey(), new FieldSpec(String.valueOf(spec.getValue())));
+        }
+        return compiled;
+    }
+
+    /**
+     * Evaluate every field relative to a row element.
+     */
+    public static Map<String, Object> extract(Element row, Map<String, FieldSpec> fields) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Map.Entry<String, FieldSpec> field : fields.entrySet()) {
+            values.put(field.getKey(), field.getValue().value(row));
+        }
+        return values;
+    }
+
+    /**
+     * @return the value of the field in the row, or null if nothing matches
+     */
+    public String value(Element row) {
+        Element match = row;
+        if (evaluator != null) {
+            ElementIterator matches = new ElementIterator(row, evaluator);
+            if (!matches.hasNext()) {
+                return null;
+            }
+            match = matches.next();
+        }
+        return FieldExtractor.value(match, field);
+    }
+
+    // the last '@' outside of attribute brackets and quotes, or -1
+    private static int attributeSeparator(String spec) {
+        int separator = -1;
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < spec.length(); i++) {
+            char c = spec.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[' || c == '(') {
+                depth++;
+            } else if (c == ']' || c == ')') {
+                depth--;
+            } else if (c == '@' && depth == 0) {
+                separator = i;
+            }
+        }
+        return separator;
+    }
+}
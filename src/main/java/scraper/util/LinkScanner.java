@@ -0,0 +1,376 @@
+package scraper.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.parser.Parser;
+import scraper.result.LinkResult;
+
+/**
+ * Finds links in HTML without building a DOM.
+ * <p>
+ * The markup is read through a small fixed buffer and scanned for tags;
+ * links are emitted as soon as they are complete, so memory use does not
+ * depend on the size of the page. In link mode every {@code a} tag with an
+ * href is returned together with its text, in media mode every tag with a
+ * src attribute. Comments and the contents of script and style elements are
+ * skipped, and a {@code base} tag changes the url relative links are
+ * resolved against, like in Jsoup.
+ * <p>
+ * This is a scanner, not an HTML parser: markup that relies on the parser's
+ * error recovery (for example unclosed anchors) can give slightly different
+ * anchor texts than {@code getLinks}.
+ */
+public class LinkScanner implements Iterator<LinkResult> {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_TEXT = 4096;
+    private static final int MAX_VALUE = 65536;
+    private static final int EOF = -1;
+
+    private final Reader reader;
+    private final boolean media;
+    private String baseUri;
+    private boolean baseSeen = false;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private int pushback = EOF - 1;
+
+    private final StringBuilder name = new StringBuilder();
+    private final StringBuilder attrName = new StringBuilder();
+    private final StringBuilder attrValue = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+    private String href;
+    private String src;
+    private String rel;
+
+    private boolean inAnchor = false;
+    private String anchorHref;
+    private String anchorRel;
+    private boolean pendingSpace = false;
+
+    private LinkResult next;
+    private boolean done = false;
+
+    /**
+     * @param reader  the html to scan, closed when the end is reached
+     * @param baseUri the url relative links are resolved against
+     * @param media   find tags with a src attribute instead of anchors
+     */
+    public LinkScanner(Reader reader, String baseUri, boolean media) {
+        this.reader = reader;
+        this.baseUri = baseUri == null ? "" : baseUri;
+        this.media = media;
+    }
+
+    public static Stream<LinkResult> stream(Reader reader, String baseUri, boolean media) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+              new LinkScanner(reader, baseUri, media),
+              Spliterator.ORDERED | Spliterator.NONNULL), false)
+              .onClose(() -> {
+                  try {
+                      reader.close();
+                  } catch (IOException e) {
+                      throw new UncheckedIOException(e);
+                  }
+              });
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = scan();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public LinkResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LinkResult result = next;
+        next = null;
+        return result;
+    }
+
+    private LinkResult scan() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == EOF) {
+                done = true;
+                reader.close();
+                return inAnchor ? closeAnchor() : null;
+            }
+            if (c != '<') {
+                appendText(c);
+                continue;
+            }
+
+            c = read();
+            if (c == '!') {
+                skipDeclaration();
+            } else if (c == '?') {
+                skipTo('>');
+            } else if (c == '/') {
+                readName(read());
+                skipTo('>');
+                if (inAnchor && name.toString().equals("a")) {
+                    return closeAnchor();
+                }
+                if (inAnchor && name.toString().equals("br")) {
+                    appendText(' ');
+                }
+            } else if (isLetter(c)) {
+                LinkResult result = startTag(c);
+                if (result != null) {
+                    return result;
+                }
+            } else {
+                appendText('<');
+                unread(c);
+            }
+        }
+    }
+
+    private LinkResult startTag(int first) throws IOException {
+        readName(first);
+        String tag = name.toString();
+        href = null;
+        src = null;
+        rel = null;
+        readAttributes();
+
+        if (tag.equals("base") && href != null && !baseSeen) {
+            baseSeen = true;
+            String resolved = StringUtil.resolve(baseUri, href);
+            if (!resolved.isEmpty()) {
+                baseUri = resolved;
+            }
+        }
+        if (tag.equals("script") || tag.equals("style")) {
+            skipRawText(tag);
+        }
+
+        if (media) {
+            return src == null ? null : link(tag, src, rel, "");
+        }
+        if (tag.equals("br") && inAnchor) {
+            appendText(' ');
+        }
+        if (tag.equals("a") && href != null) {
+            // an anchor can not contain another one, the parser closes it
+            LinkResult previous = inAnchor ? closeAnchor() : null;
+            inAnchor = true;
+            anchorHref = href;
+            anchorRel = rel;
+            text.setLength(0);
+            pendingSpace = false;
+            return previous;
+        }
+        return null;
+    }
+
+    private LinkResult closeAnchor() {
+        inAnchor = false;
+        return link("a", anchorHref, anchorRel, text.toString());
+    }
+
+    private LinkResult link(String tag, String value, String linkRel, String linkText) {
+        String decoded = Parser.unescapeEntities(value, true);
+        return new LinkResult(tag, decoded, StringUtil.resolve(baseUri, decoded.trim()),
+              Parser.unescapeEntities(linkText, false),
+              linkRel == null ? null : Parser.unescapeEntities(linkRel, true));
+    }
+
+    private void appendText(int c) {
+        if (!inAnchor || text.length() >= MAX_TEXT) {
+            return;
+        }
+        if (isWhitespace(c)) {
+            pendingSpace = text.length() > 0;
+            return;
+        }
+        if (pendingSpace) {
+            text.append(' ');
+            pendingSpace = false;
+        }
+        text.append((char) c);
+    }
+
+    private void readName(int c) throws IOException {
+        name.setLength(0);
+        while (c != EOF && !isWhitespace(c) && c != '>' && c != '/') {
+            name.append(Character.toLowerCase((char) c));
+            c = read();
+        }
+        unread(c);
+    }
+
+    private void readAttributes() throws IOException {
+        while (true) {
+            int c = read();
+            while (isWhitespace(c) || c == '/') {
+                c = read();
+            }
+            if (c == '>' || c == EOF) {
+                return;
+            }
+
+            attrName.setLength(0);
+            while (c != EOF && !isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+                attrName.append(Character.toLowerCase((char) c));
+                c = read();
+            }
+            while (isWhitespace(c)) {
+                c = read();
+            }
+            if (c != '=') {
+                unread(c);
+                setAttribute(attrName.toString(), "");
+                continue;
+            }
+
+            c = read();
+            while (isWhitespace(c)) {
+                c = read();
+            }
+            attrValue.setLength(0);
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                c = read();
+                while (c != EOF && c != quote) {
+                    appendValue(c);
+                    c = read();
+                }
+            } else {
+                while (c != EOF && !isWhitespace(c) && c != '>') {
+                    appendValue(c);
+                    c = read();
+                }
+                unread(c);
+            }
+            setAttribute(attrName.toString(), attrValue.toString());
+        }
+    }
+
+    private void appendValue(int c) {
+        if (attrValue.length() < MAX_VALUE) {
+            attrValue.append((char) c);
+        }
+    }
+
+    // the first occurrence of an attribute wins, as in the html parser
+    private void setAttribute(String key, String value) {
+        if (key.equals("href") && href == null) {
+            href = value;
+        } else if (key.equals("src") && src == null) {
+            src = value;
+        } else if (key.equals("rel") && rel == null) {
+            rel = value;
+        }
+    }
+
+    private void skipDeclaration() throws IOException {
+        int c = read();
+        if (c == '-') {
+            int d = read();
+            if (d == '-') {
+                skipComment();
+                return;
+            }
+            unread(d);
+        }
+        while (c != EOF && c != '>') {
+            c = read();
+        }
+    }
+
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = read()) != EOF) {
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    private void skipTo(int end) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != EOF && c != end);
+    }
+
+    // skips the contents of a script or style element and its end tag
+    private void skipRawText(String tag) throws IOException {
+        int c;
+        while ((c = read()) != EOF) {
+            if (c != '<') {
+                continue;
+            }
+            c = read();
+            if (c != '/') {
+                unread(c);
+                continue;
+            }
+            int matched = 0;
+            while (matched < tag.length()) {
+                c = read();
+                if (c == EOF || Character.toLowerCase((char) c) != tag.charAt(matched)) {
+                    break;
+                }
+                matched++;
+            }
+            if (matched == tag.length()) {
+                skipTo('>');
+                return;
+            }
+            unread(c);
+        }
+    }
+
+    private int read() throws IOException {
+        if (pushback != EOF - 1) {
+            int c = pushback;
+            pushback = EOF - 1;
+            return c;
+        }
+        if (pos == limit) {
+            limit = reader.read(buffer, 0, BUFFER_SIZE);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return EOF;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private void unread(int c) {
+        pushback = c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,212 @@
+package scraper.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Collects the structured metadata of a page in one walk over the DOM.
+ * <p>
+ * The result map holds the title, the meta description and the canonical
+ * link; openGraph, every meta property with a prefix like og:, article: or
+ * fb:; twitter, the twitter: card properties, whether given as property or
+ * name; jsonLd, the parsed value of every application/ld+json script, with
+ * invalid blocks skipped; and microdata, the top level items with their
+ * {@code @type}, {@code @id} and properties, nested items as maps. A
+ * property seen more than once becomes a list. Microdata itemref
+ * attributes are not followed.
+ */
+public class MetadataExtractor {
+
+    private MetadataExtractor() {
+    }
+
+    /**
+     * @param root the document or element to read
+     * @return the metadata, with every key present
+     */
+    public static Map<String, Object> extract(Element root) {
+        MetadataVisitor visitor = new MetadataVisitor();
+        new NodeTraversor(visitor).traverse(root);
+        return visitor.result();
+    }
+
+    // the attributes holding the value of a microdata property, by tag
+    static Object propertyValue(Element element) {
+        switch (element.tagName()) {
+            case "meta":
+                return element.attr("content");
+            case "audio":
+            case "embed":
+            case "iframe":
+            case "img":
+            case "source":
+            case "track":
+            case "video":
+                return url(element, "src");
+            case "a":
+            case "area":
+            case "link":
+                return url(element, "href");
+            case "object":
+                return url(element, "data");
+            case "data":
+            case "meter":
+                return element.attr("value");
+            case "time":
+                return element.hasAttr("datetime") ? element.attr("datetime") : element.text();
+            default:
+                return element.text();
+        }
+    }
+
+    // resolved against the url of the page, or as written if there is none
+    private static String url(Element element, String attribute) {
+        String url = element.absUrl(attribute);
+        return url.isEmpty() ? element.attr(attribute) : url;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void add(Map<String, Object> map, String key, Object value) {
+        Object previous = map.get(key);
+        if (previous == null && !map.containsKey(key)) {
+            map.put(key, value);
+        } else if (previous instanceof MultipleValues) {
+            ((List<Object>) previous).add(value);
+        } else {
+            List<Object> values = new MultipleValues();
+            values.add(previous);
+            values.add(value);
+            map.put(key, values);
+        }
+    }
+
+    // a list made by add, told apart from a list value of JSON-LD
+    private static class MultipleValues extends ArrayList<Object> {
+    }
+
+    private static class MetadataVisitor implements NodeVisitor {
+        private String title;
+        private String description;
+        private String canonical;
+        private final Map<String, Object> openGraph = new LinkedHashMap<>();
+        private final Map<String, Object> twitter = new LinkedHashMap<>();
+        private final List<Object> jsonLd = new ArrayList<>();
+        private final List<Object> microdata = new ArrayList<>();
+
+        // the microdata items the walk is in, innermost first
+        private final Deque<Element> scopes = new ArrayDeque<>();
+        private final Deque<Map<String, Object>> items = new ArrayDeque<>();
+
+        public void head(Node node, int depth) {
+            if (!(node instanceof Element)) {
+                return;
+            }
+            Element element = (Element) node;
+            switch (element.tagName()) {
+                case "title":
+                    if (title == null) {
+                        title = element.text();
+                    }
+                    break;
+                case "meta":
+                    meta(element);
+                    break;
+                case "link":
+                    if (canonical == null && hasToken(element.attr("rel"), "canonical")) {
+                        canonical = url(element, "href");
+                    }
+                    break;
+                case "script":
+                    if (element.attr("type").trim().toLowerCase(Locale.ENGLISH).equals("application/ld+json")) {
+                        try {
+                            jsonLd.add(JsonParser.parse(element.data().trim()));
+                        } catch (IllegalArgumentException e) {
+                            // invalid blocks are skipped
+                        }
+                    }
+                    break;
+                default:
+            }
+            microdata(element);
+        }
+
+        public void tail(Node node, int depth) {
+            if (!scopes.isEmpty() && scopes.peek() == node) {
+                scopes.pop();
+                items.pop();
+            }
+        }
+
+        private void meta(Element element) {
+            String content = element.attr("content");
+            String property = element.attr("property").trim();
+            String name = element.attr("name").trim().toLowerCase(Locale.ENGLISH);
+            if (property.startsWith("twitter:") || name.startsWith("twitter:")) {
+                add(twitter, property.startsWith("twitter:") ? property : name, content);
+            } else if (property.indexOf(':') > 0) {
+                add(openGraph, property, content);
+            } else if (name.equals("description") && description == null) {
+                description = content;
+            }
+        }
+
+        private void microdata(Element element) {
+            boolean scope = element.hasAttr("itemscope");
+            String itemprop = element.attr("itemprop").trim();
+            Map<String, Object> parent = items.peek();
+            Object value = null;
+            if (scope) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                if (element.hasAttr("itemtype")) {
+                    item.put("@type", element.attr("itemtype").trim());
+                }
+                if (element.hasAttr("itemid")) {
+                    item.put("@id", url(element, "itemid"));
+                }
+                scopes.push(element);
+                items.push(item);
+                value = item;
+            }
+            if (parent != null && !itemprop.isEmpty()) {
+                if (value == null) {
+                    value = propertyValue(element);
+                }
+                for (String name : itemprop.split("\\s+")) {
+                    add(parent, name, value);
+                }
+            } else if (scope) {
+                microdata.add(value);
+            }
+        }
+
+        private static boolean hasToken(String value, String token) {
+            for (String part : value.trim().split("\\s+")) {
+                if (part.equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Map<String, Object> result() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("title", title);
+            result.put("description", description);
+            result.put("canonical", canonical);
+            result.put("openGraph", openGraph);
+            result.put("twitter", twitter);
+            result.put("jsonLd", jsonLd);
+            result.put("microdata", microdata);
+            return result;
+        }
+    }
+}
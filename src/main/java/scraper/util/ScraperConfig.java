@@ -0,0 +1,89 @@
+package scraper.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import scraper.result.ElementMap;
+
+/**
+ * Typed access to the optional config map of the procedures.
+ */
+public class ScraperConfig {
+
+    private final Map<String, Object> config;
+
+    public ScraperConfig(Map<String, Object> config) {
+        this.config = config == null ? Collections.<String, Object>emptyMap() : config;
+    }
+
+    /**
+     * @return the element fields to return, all of them if not configured
+     */
+    public Set<String> getFields() {
+        return ElementMap.projection(getStringList("fields"));
+    }
+
+    public String getString(String key, String defaultValue) {
+        Object value = config.get(key);
+        return value == null ? defaultValue : value.toString();
+    }
+
+    public long getLong(String key, long defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a number, not " + value);
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a number, not " + value);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return Boolean.parseBoolean(value.toString());
+    }
+
+    public List<String> getStringList(String key) {
+        Object value = config.get(key);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) {
+                result.add(item.toString());
+            }
+        } else {
+            result.add(value.toString());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+package scraper.util;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.jsoup.helper.Validate;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import scraper.cache.CompiledCache;
+
+/**
+ * Builds the Jsoup evaluators behind the getElementsBy* family of methods,
+ * so that matches can be walked lazily with {@link ElementIterator} instead
+ * of being collected into {@code Elements}.
+ * <p>
+ * Parsed CSS queries and compiled regular expressions are kept in bounded
+ * caches shared by all procedures, so a query run once per row is only
+ * parsed once. Evaluators and patterns are immutable and safe to share.
+ */
+public class Selectors {
+
+    public static final int MAX_CACHED = 1024;
+
+    private static final CompiledCache<Evaluator> QUERIES = new CompiledCache<>(MAX_CACHED, QueryParser::parse);
+    private static final CompiledCache<Pattern> PATTERNS = new CompiledCache<>(MAX_CACHED, Selectors::compile);
+
+    private Selectors() {
+    }
+
+    public static Evaluator select(String query) {
+        Validate.notEmpty(query);
+        return QUERIES.get(query);
+    }
+
+    public static Evaluator byTag(String tagName) {
+        Validate.notEmpty(tagName);
+        return new Evaluator.Tag(tagName.toLowerCase(Locale.ENGLISH).trim());
+    }
+
+    public static Evaluator byClass(String className) {
+        Validate.notEmpty(className);
+        return new Evaluator.Class(className);
+    }
+
+    public static Evaluator byAttribute(String key) {
+        Validate.notEmpty(key);
+        return new Evaluator.Attribute(key.trim());
+    }
+
+    public static Evaluator byAttributeStarting(String keyPrefix) {
+        Validate.notEmpty(keyPrefix);
+        return new Evaluator.AttributeStarting(keyPrefix.trim());
+    }
+
+    public static Evaluator byAttributeValue(String key, String value) {
+        return new Evaluator.AttributeWithValue(key, value);
+    }
+
+    public static Evaluator byAttributeValueNot(String key, String value) {
+        return new Evaluator.AttributeWithValueNot(key, value);
+    }
+
+    public static Evaluator byAttributeValueStarting(String key, String valuePrefix) {
+        return new Evaluator.AttributeWithValueStarting(key, valuePrefix);
+    }
+
+    public static Evaluator byAttributeValueEnding(String key, String valueSuffix) {
+        return new Evaluator.AttributeWithValueEnding(key, valueSuffix);
+    }
+
+    public static Evaluator byAttributeValueContaining(String key, String match) {
+        return new Evaluator.AttributeWithValueContaining(key, match);
+    }
+
+    public static Evaluator byAttributeValueMatching(String key, String regex) {
+        return new Evaluator.AttributeWithValueMatching(key, pattern(regex));
+    }
+
+    public static Evaluator byIndexLessThan(int index) {
+        return new Evaluator.IndexLessThan(index);
+    }
+
+    public static Evaluator byIndexGreaterThan(int index) {
+        return new Evaluator.IndexGreaterThan(index);
+    }
+
+    public static Evaluator byIndexEquals(int index) {
+        return new Evaluator.IndexEquals(index);
+    }
+
+    public static Evaluator containingText(String searchText) {
+        return new Evaluator.ContainsText(searchText);
+    }
+
+    public static Evaluator containingOwnText(String searchText) {
+        return new Evaluator.ContainsOwnText(searchText);
+    }
+
+    public static Evaluator matchingText(String regex) {
+        return new Evaluator.Matches(pattern(regex));
+    }
+
+    public static Evaluator matchingOwnText(String regex) {
+        return new Evaluator.MatchesOwn(pattern(regex));
+    }
+
+    public static Evaluator allElements() {
+        return new Evaluator.AllElements();
+    }
+
+    public static Pattern pattern(String regex) {
+        return PATTERNS.get(regex);
+    }
+
+    public static CompiledCache<Evaluator> queryCache() {
+        return QUERIES;
+    }
+
+    public static CompiledCache<Pattern> patternCache() {
+        return PATTERNS;
+    }
+
+    private static Pattern compile(String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Pattern syntax error: " + regex, e);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package scraper.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import scraper.result.SitemapResult;
+
+/**
+ * Reads the entries of a sitemap or sitemap index without loading it into
+ * memory.
+ * <p>
+ * The XML is pulled through StAX one entry at a time, so memory use does
+ * not depend on the size of the file, and gzipped files are recognised by
+ * their magic bytes and decompressed while they are read. The sitemaps of
+ * an index are opened one after the other, only when the caller has read
+ * every entry before them; a sitemap that cannot be read is reported and
+ * skipped, except for the first one. Indexes are followed at most
+ * {@value #MAX_INDEX_DEPTH} levels deep and every sitemap is read once.
+ * <p>
+ * With a {@code since} time, entries whose lastmod is before it are
+ * skipped, and so are the sitemaps of an index whose lastmod is before it,
+ * without fetching them. Entries without a readable lastmod are kept.
+ * Namespaces are ignored, so sitemaps without the sitemap namespace are
+ * read too, but only the direct children of an entry are: the loc of an
+ * image or video extension is not taken for the loc of the page.
+ */
+public class SitemapReader implements Iterator<SitemapResult> {
+
+    public static final int MAX_INDEX_DEPTH = 2;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final XMLInputFactory XML = XMLInputFactory.newInstance();
+
+    static {
+        XML.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * Opens the body of a sitemap, compressed or not.
+     */
+    public interface Fetch {
+        InputStream open(String url) throws IOException;
+    }
+
+    private static class Source {
+        final String url;
+        final InputStream in;
+        final XMLStreamReader xml;
+        final boolean index;
+        final int depth;
+
+        Source(String url, InputStream in, XMLStreamReader xml, boolean index, int depth) {
+            this.url = url;
+            this.in = in;
+            this.xml = xml;
+            this.index = index;
+            this.depth = depth;
+        }
+
+        void close() {
+            try {
+                xml.close();
+            } catch (XMLStreamException e) {
+                // the stream is closed below anyway
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing left to read from it
+            }
+        }
+    }
+
+    private final Fetch fetch;
+    private final boolean followIndex;
+    private final Long since;
+    private final BiConsumer<String, Exception> onError;
+
+    private final Deque<Source> sources = new ArrayDeque<>();
+    private final Set<String> seen = new HashSet<>();
+    private final String url;
+    private boolean started = false;
+    private SitemapResult next;
+    private boolean done = false;
+
+    /**
+     * @param url         the url of the sitemap or sitemap index
+     * @param fetch       opens the body of a sitemap
+     * @param followIndex read the sitemaps of an index instead of returning them
+     * @param since       the epoch millis older entries are skipped before, or null
+     * @param onError     told about the sitemaps of an index that could not be read
+     */
+    public SitemapReader(String url, Fetch fetch, boolean followIndex, Long since,
+          BiConsumer<String, Exception> onError) {
+        this.url = url;
+        this.fetch = fetch;
+        this.followIndex = followIndex;
+        this.since = since;
+        this.onError = onError;
+    }
+
+    public static Stream<SitemapResult> stream(String url, Fetch fetch, boolean followIndex, Long since,
+          BiConsumer<String, Exception> onError) {
+        SitemapReader reader = new SitemapReader(url, fetch, followIndex, since, onError);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader,
+              Spliterator.ORDERED | Spliterator.NONNULL), false)
+              .onClose(reader::close);
+    }
+
+    /**
+     * @return the epoch millis of a W3C datetime, as used by sitemaps, or
+     * null if it cannot be read. A time without an offset is taken as UTC.
+     */
+    public static Long parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        String date = value.trim();
+        try {
+            switch (date.length()) {
+                case 4:
+                    return Year.parse(date).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+                case 7:
+                    return YearMonth.parse(date).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+                case 10:
+                    return LocalDate.parse(date).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+                default:
+                    date = date.replace(' ', 'T');
+                    try {
+                        return OffsetDateTime.parse(date).toInstant().toEpochMilli();
+                    } catch (DateTimeParseException e) {
+                        return LocalDateTime.parse(date).toInstant(ZoneOffset.UTC).toEpochMilli();
+                    }
+            }
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            next = read();
+        }
+        return next != null;
+    }
+
+    @Override
+    public SitemapResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SitemapResult result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Close every sitemap that is still open.
+     */
+    public void close() {
+        done = true;
+        while (!sources.isEmpty()) {
+            sources.pop().close();
+        }
+    }
+
+    private SitemapResult read() {
+        if (!started) {
+            started = true;
+            seen.add(url);
+            try {
+                sources.push(open(url, 0));
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+        while (!sources.isEmpty()) {
+            Source source = sources.peek();
+            SitemapResult entry;
+            try {
+                entry = readEntry(source);
+            } catch (IOException | XMLStreamException e) {
+                if (source.depth == 0) {
+                    close();
+                    throw new UncheckedIOException(e instanceof IOException ? (IOException) e
+                          : new IOException("Invalid sitemap " + source.url + ": " + e.getMessage(), e));
+                }
+                sources.pop().close();
+                onError.accept(source.url, e);
+                continue;
+            }
+            if (entry == null) {
+                sources.pop().close();
+                continue;
+            }
+            if (entry.loc == null || entry.loc.isEmpty() || before(entry.lastmod)) {
+                continue;
+            }
+            if (source.index && followIndex && source.depth < MAX_INDEX_DEPTH) {
+                if (seen.add(entry.loc)) {
+                    try {
+                        sources.push(open(entry.loc, source.depth + 1));
+                    } catch (IOException e) {
+                        onError.accept(entry.loc, e);
+                    }
+                }
+                continue;
+            }
+            return entry;
+        }
+        done = true;
+        return null;
+    }
+
+    private boolean before(String lastmod) {
+        if (since == null) {
+            return false;
+        }
+        Long time = parseDate(lastmod);
+        return time != null && time < since;
+    }
+
+    private Source open(String sitemapUrl, int depth) throws IOException {
+        InputStream in = decompress(fetch.open(sitemapUrl));
+        try {
+            XMLStreamReader xml = XML.createXMLStreamReader(in);
+            xml.nextTag();
+            String root = xml.getLocalName();
+            if (!root.equals("urlset") && !root.equals("sitemapindex")) {
+                xml.close();
+                throw new IOException("Not a sitemap: " + sitemapUrl + " starts with <" + root + ">");
+            }
+            return new Source(sitemapUrl, in, xml, root.equals("sitemapindex"), depth);
+        } catch (XMLStreamException | IOException e) {
+            in.close();
+            throw e instanceof IOException ? (IOException) e
+                  : new IOException("Invalid sitemap " + sitemapUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static InputStream decompress(InputStream body) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(body, BUFFER_SIZE);
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    // the next url or sitemap element of the root, or null at the end of the file
+    private static SitemapResult readEntry(Source source) throws IOException, XMLStreamException {
+        XMLStreamReader xml = source.xml;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+                return null;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String name = xml.getLocalName();
+            if (!name.equals("url") && !name.equals("sitemap")) {
+                skipElement(xml);
+                continue;
+            }
+
+            String loc = null;
+            String lastmod = null;
+            String changefreq = null;
+            Double priority = null;
+            while ((event = xml.next()) != XMLStreamConstants.END_ELEMENT) {
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (xml.getLocalName()) {
+                    case "loc":
+                        loc = text(xml);
+                        break;
+                    case "lastmod":
+                        lastmod = text(xml);
+                        break;
+                    case "changefreq":
+                        changefreq = text(xml);
+                        break;
+                    case "priority":
+                        String value = text(xml);
+                        if (value != null) {
+                            try {
+                                priority = Double.valueOf(value);
+                            } catch (NumberFormatException e) {
+                                // an invalid priority is left out
+                            }
+                        }
+                        break;
+                    default:
+                        skipElement(xml);
+                }
+            }
+            return new SitemapResult(loc, lastmod, changefreq, priority);
+        }
+        return null;
+    }
+
+    private static String text(XMLStreamReader xml) throws XMLStreamException {
+        String text = xml.getElementText().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                level++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                level--;
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package scraper.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+import scraper.result.TableRowResult;
+
+/**
+ * Reads html tables into rows keyed by the headers of their columns,
+ * walking each table once.
+ * <p>
+ * The cells of a row are laid out on a grid: a cell spanning several
+ * columns fills each of them, and a cell spanning several rows is carried
+ * down into the rows below it in its row group, so a row has the value of
+ * every column it covers. The header rows are the rows of the thead and the
+ * leading rows made only of th cells; the header of a column joins the
+ * distinct texts of its header cells with {@value #HEADER_SEPARATOR}.
+ * Columns without a header are named column1, column2 and so on, and a
+ * header seen before gets a _2, _3 suffix.
+ * <p>
+ * Matching elements that are not tables are skipped. Tables are found as
+ * the rows are pulled and the rows of a table are read one at a time, so
+ * nothing is collected up front. Only the rows of the table itself are
+ * read; a nested table ends up in the text of its cell, and is returned
+ * on its own if the selector matches it too.
+ */
+public class TableReader implements Iterator<TableRowResult> {
+
+    public static final String HEADER_SEPARATOR = " / ";
+
+    // larger spans are clamped, like browsers do
+    private static final int MAX_COLSPAN = 1000;
+    private static final int MAX_ROWSPAN = 65534;
+
+    private final Iterator<Element> elements;
+    private Table table;
+    private long tableIndex = -1;
+    private TableRowResult next;
+
+    /**
+     * @param root      the element to find tables in
+     * @param evaluator matches the tables to read
+     */
+    public TableReader(Element root, Evaluator evaluator) {
+        this.elements = new ElementIterator(root, evaluator);
+    }
+
+    public static Stream<TableRowResult> stream(Element root, Evaluator evaluator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new TableReader(root, evaluator),
+              Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (table != null) {
+                Map<String, Object> row = table.nextRow();
+                if (row != null) {
+                    next = new TableRowResult(tableIndex, table.rowIndex++, row);
+                    break;
+                }
+                table = null;
+            }
+            Element element = nextTable();
+            if (element == null) {
+                return false;
+            }
+            table = new Table(element);
+            tableIndex++;
+        }
+        return true;
+    }
+
+    @Override
+    public TableRowResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TableRowResult result = next;
+        next = null;
+        return result;
+    }
+
+    private Element nextTable() {
+        while (elements.hasNext()) {
+            Element element = elements.next();
+            if (element.tagName().equals("table")) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCell(Element element) {
+        return element.tagName().equals("td") || element.tagName().equals("th");
+    }
+
+    private static int span(Element cell, String attribute, int max) {
+        String value = cell.attr(attribute).trim();
+        if (value.isEmpty()) {
+            return 1;
+        }
+        try {
+            int span = Integer.parseInt(value);
+            // rowspan="0" spans the rest of the row group
+            return span == 0 && attribute.equals("rowspan") ? max : Math.max(1, Math.min(span, max));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private static class Table {
+        final Iterator<Element> children;
+        Iterator<Element> rows = Collections.emptyIterator();
+        Element group;
+        Element pushedBack;
+        List<String> headers = new ArrayList<>();
+        long rowIndex = 0;
+
+        // per column, the rows still covered by a cell from a row above, and its text
+        int[] remaining = new int[16];
+        String[] carried = new String[16];
+        int width = 0;
+
+        Table(Element table) {
+            children = table.children().iterator();
+            readHeaders();
+        }
+
+        Map<String, Object> nextRow() {
+            while (true) {
+                Element tr = pushedBack != null ? pushedBack : nextTr();
+                pushedBack = null;
+                if (tr == null) {
+                    return null;
+                }
+                List<String> cells = expand(tr);
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int col = 0; col < cells.size(); col++) {
+                    if (cells.get(col) != null) {
+                        row.put(col < headers.size() ? headers.get(col) : "column" + (col + 1), cells.get(col));
+                    }
+                }
+                if (!row.isEmpty()) {
+                    return row;
+                }
+            }
+        }
+
+        private void readHeaders() {
+            List<List<String>> headerRows = new ArrayList<>();
+            Element tr;
+            while ((tr = nextTr()) != null) {
+                if (!tr.parent().tagName().equals("thead") && !onlyHeaderCells(tr)) {
+                    pushedBack = tr;
+                    break;
+                }
+                headerRows.add(expand(tr));
+            }
+
+            int columns = 0;
+            for (List<String> headerRow : headerRows) {
+                columns = Math.max(columns, headerRow.size());
+            }
+            Set<String> seen = new HashSet<>();
+            for (int col = 0; col < columns; col++) {
+                Set<String> parts = new LinkedHashSet<>();
+                for (List<String> headerRow : headerRows) {
+                    String text = col < headerRow.size() ? headerRow.get(col) : null;
+                    if (text != null && !text.isEmpty()) {
+                        parts.add(text);
+                    }
+                }
+                String name = parts.isEmpty() ? "column" + (col + 1) : String.join(HEADER_SEPARATOR, parts);
+                String unique = name;
+                for (int n = 2; !seen.add(unique); n++) {
+                    unique = name + "_" + n;
+                }
+                headers.add(unique);
+            }
+        }
+
+        private static boolean onlyHeaderCells(Element tr) {
+            boolean any = false;
+            for (Element cell : tr.children()) {
+                if (cell.tagName().equals("td")) {
+                    return false;
+                }
+                any |= cell.tagName().equals("th");
+            }
+            return any;
+        }
+
+        // the next row of the table, in the order of the source, starting a
+        // new row group when its parent changes
+        private Element nextTr() {
+            while (true) {
+                Element tr = null;
+                if (rows.hasNext()) {
+                    Element child = rows.next();
+                    if (child.tagName().equals("tr")) {
+                        tr = child;
+                    }
+                } else if (!children.hasNext()) {
+                    return null;
+                } else {
+                    Element child = children.next();
+                    switch (child.tagName()) {
+                        case "thead":
+                        case "tbody":
+                        case "tfoot":
+                            rows = child.children().iterator();
+                            break;
+                        case "tr":
+                            tr = child;
+                            break;
+                        default:
+                            // caption, colgroup
+                    }
+                }
+                if (tr != null) {
+                    if (tr.parent() != group) {
+                        group = tr.parent();
+                        Arrays.fill(remaining, 0);
+                        width = 0;
+                    }
+                    return tr;
+                }
+            }
+        }
+
+        // the text of the cells of a row by column, null where no cell covers a column
+        private List<String> expand(Element tr) {
+            int carriedWidth = width;
+            boolean[] covered = new boolean[carriedWidth];
+            for (int col = 0; col < carriedWidth; col++) {
+                if (remaining[col] > 0) {
+                    covered[col] = true;
+                    remaining[col]--;
+                }
+            }
+
+            List<String> cells = new ArrayList<>();
+            int col = 0;
+            for (Element cell : tr.children()) {
+                if (!isCell(cell)) {
+                    continue;
+                }
+                for (; col < carriedWidth && covered[col]; col++) {
+                    set(cells, col, carried[col]);
+                }
+                String text = cell.text();
+                int colspan = span(cell, "colspan", MAX_COLSPAN);
+                int rowspan = span(cell, "rowspan", MAX_ROWSPAN);
+                for (int i = 0; i < colspan; i++, col++) {
+                    set(cells, col, text);
+                    if (rowspan > 1) {
+                        carry(col, rowspan - 1, text);
+                    }
+                }
+            }
+            for (; col < carriedWidth; col++) {
+                if (covered[col]) {
+                    set(cells, col, carried[col]);
+                }
+            }
+            return cells;
+        }
+
+        private void carry(int col, int rows, String text) {
+            if (col >= remaining.length) {
+                int size = Math.max(col + 1, remaining.length * 2);
+                remaining = Arrays.copyOf(remaining, size);
+                carried = Arrays.copyOf(carried, size);
+            }
+            remaining[col] = rows;
+            carried[col] = text;
+            width = Math.max(width, col + 1);
+        }
+
+        private static void set(List<String> cells, int col, String text) {
+            while (cells.size() <= col) {
+                cells.add(null);
+            }
+            cells.set(col, text);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package scraper.util;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Normalizes URLs so that equivalent spellings of the same address map to
+ * the same key.
+ */
+public class UrlNormalizer {
+
+    // query parameters that only track where a visitor came from
+    private static final Set<String> TRACKING_PARAMETERS = new HashSet<>(Arrays.asList(
+          "gclid", "dclid", "fbclid", "msclkid", "yclid", "mc_cid", "mc_eid", "_ga", "_hsenc", "_hsmi",
+          "igshid", "mkt_tok"));
+
+    private UrlNormalizer() {
+    }
+
+    /**
+     * Normalizes an url like {@link #normalize} and also removes the parts
+     * that do not change the page: dot segments of the path, tracking
+     * parameters like utm_source or gclid, and the order of the remaining
+     * query parameters. Percent escapes of unreserved characters are decoded
+     * and the others upper-cased.
+     *
+     * @param url the url to canonicalize
+     * @return the canonical url, or the trimmed input if it can not be parsed
+     */
+    public static String canonicalize(String url) {
+        String normalized = normalize(url);
+        int schemeEnd = normalized.indexOf("://");
+        if (schemeEnd < 0) {
+            return normalized;
+        }
+        int pathStart = normalized.indexOf('/', schemeEnd + 3);
+        if (pathStart < 0) {
+            return normalized;
+        }
+        int queryStart = normalized.indexOf('?', pathStart);
+        String path = normalized.substring(pathStart, queryStart < 0 ? normalized.length() : queryStart);
+        String query = queryStart < 0 ? null : normalized.substring(queryStart + 1);
+
+        StringBuilder sb = new StringBuilder(normalized.length());
+        sb.append(normalized, 0, pathStart);
+        sb.append(removeDotSegments(escapes(path)));
+        if (query != null) {
+            List<String> parameters = new ArrayList<>();
+            for (String parameter : query.split("&")) {
+                if (!parameter.isEmpty() && !isTracking(parameter)) {
+                    parameters.add(escapes(parameter));
+                }
+            }
+            if (!parameters.isEmpty()) {
+                // a stable sort keeps the order of repeated parameters
+                Collections.sort(parameters, (a, b) -> name(a).compareTo(name(b)));
+                sb.append('?').append(String.join("&", parameters));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lower-cases scheme and host, drops default ports and fragments and
+     * replaces an empty path with "/".
+     *
+     * @param url the url to normalize
+     * @return the normalized url, or the trimmed input if it can not be parsed
+     */
+    public static String normalize(String url) {
+        String trimmed = url.trim();
+        try {
+            URI uri = new URI(trimmed);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+                return trimmed;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            String host = uri.getHost() == null ? null : uri.getHost().toLowerCase(Locale.ROOT);
+            if (host == null) {
+                return trimmed;
+            }
+            int port = uri.getPort();
+            if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+                port = -1;
+            }
+            String path = uri.getRawPath();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            }
+
+            StringBuilder sb = new StringBuilder(trimmed.length());
+            sb.append(scheme).append("://");
+            if (uri.getRawUserInfo() != null) {
+                sb.append(uri.getRawUserInfo()).append('@');
+            }
+            sb.append(host);
+            if (port != -1) {
+                sb.append(':').append(port);
+            }
+            sb.append(path);
+            if (uri.getRawQuery() != null) {
+                sb.append('?').append(uri.getRawQuery());
+            }
+            return sb.toString();
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+    }
+
+    private static boolean isTracking(String parameter) {
+        String name = name(parameter).toLowerCase(Locale.ROOT);
+        return name.startsWith("utm_") || TRACKING_PARAMETERS.contains(name);
+    }
+
+    private static String name(String parameter) {
+        int eq = parameter.indexOf('=');
+        return eq < 0 ? parameter : parameter.substring(0, eq);
+    }
+
+    // the algorithm of RFC 3986 section 5.2.4
+    private static String removeDotSegments(String path) {
+        if (!path.contains("/.")) {
+            return path;
+        }
+        List<String> segments = new ArrayList<>();
+        String[] parts = path.split("/", -1);
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i];
+            boolean last = i == parts.length - 1;
+            if (part.equals(".")) {
+                if (last) {
+                    segments.add("");
+                }
+            } else if (part.equals("..")) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+                if (last) {
+                    segments.add("");
+                }
+            } else {
+                segments.add(part);
+            }
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    // decodes escaped unreserved characters and upper-cases the other escapes
+    private static String escapes(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length() && hex(value.charAt(i + 1)) >= 0
+                  && hex(value.charAt(i + 2)) >= 0) {
+                int decoded = hex(value.charAt(i + 1)) * 16 + hex(value.charAt(i + 2));
+                if (isUnreserved((char) decoded)) {
+                    sb.append((char) decoded);
+                } else {
+                    sb.append('%').append(Character.toUpperCase(value.charAt(i + 1)))
+                          .append(Character.toUpperCase(value.charAt(i + 2)));
+                }
+                i += 2;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int hex(char c) {
+        return Character.digit(c, 16);
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+              || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+}
@@ -3,15 +3,23 @@ package scraper;
 import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.sun.net.httpserver.HttpServer;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jsoup.Jsoup;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -112,6 +120,19 @@ public class ScraperTest {
         assertEquals(Arrays.asList("http://www.index.hu", "http://www.index2.hu"), urls);
     }
 
+    @Test
+    public void shouldReturnFirstMatchWithLimit() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", getTestHtml());
+
+        Result res = db.execute("CALL scraper.selectInHtml({html},'a[href]') YIELD element " +
+              "RETURN element.text AS text LIMIT 1", map);
+
+        assertEquals(Jsoup.parseBodyFragment(getTestHtml()).select("a[href]").first().text(),
+              res.next().get("text"));
+        assertTrue(!res.hasNext());
+    }
+
     @Test
     public void shouldReturnTextOfHtmlUrl() {
         Map<String, Object> map = new HashMap<>();
@@ -146,6 +167,24 @@ public class ScraperTest {
         assertEquals(Collections.singletonList("value"), res.columns());
     }
 
+    @Test
+    public void shouldReturnUnwrappedTextOfHtml() {
+        Map<String, Object> map = new HashMap<>();
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            words.append("word").append(i).append(' ');
+        }
+        map.put("html", "<p>" + words + "</p>");
+        map.put("config", Collections.singletonMap("wrap", false));
+
+        Result res = db.execute("CALL scraper.getPlainTextInHtml({html},'p',{config}) YIELD " +
+                    "value RETURN value",
+              map);
+
+        assertEquals("\n" + words + "\n", res.next().get("value").toString());
+        assertTrue(!res.hasNext());
+    }
+
     @Test
     public void shouldReturnLinksUrl() {
         Map<String, Object> map = new HashMap<>();
@@ -165,6 +204,232 @@ public class ScraperTest {
         assertEquals(Arrays.asList("http://www.index.hu", "http://www.index2.hu"), urls);
     }
 
+    @Test
+    public void shouldScanLinksInHtml() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", getTestHtml());
+
+        Result res = db.execute("CALL scraper.scanLinksInHtml({html}) YIELD absHref, text " +
+                    "RETURN absHref, text",
+              map);
+
+        Map<String, Object> row = res.next();
+        assertEquals("http://www.index.hu", row.get("absHref"));
+        assertEquals("Index1", row.get("text"));
+        assertEquals("http://www.index2.hu", res.next().get("absHref"));
+        assertTrue(!res.hasNext());
+    }
+
+    @Test
+    public void shouldCountProcedureCallsInStats() {
+        db.execute("CALL scraper.resetStats()").resultAsString();
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", getTestHtml());
+        db.execute("CALL scraper.selectInHtml({html},'li a') YIELD element RETURN element", map)
+              .resultAsString();
+
+        Result res = db.execute("CALL scraper.stats() YIELD value " +
+              "RETURN value.procedures.selectInHtml AS stats");
+
+        Map<String, Object> stats = (Map<String, Object>) res.next().get("stats");
+        assertEquals(1L, stats.get("calls"));
+        assertEquals(0L, stats.get("errors"));
+        assertEquals(2L, stats.get("rows"));
+        assertTrue(!res.hasNext());
+    }
+
+    @Test
+    public void shouldParseRepeatedSelectorOnce() {
+        db.execute("CALL scraper.resetStats()").resultAsString();
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", getTestHtml());
+        for (int i = 0; i < 3; i++) {
+            db.execute("CALL scraper.selectInHtml({html},'ul > li a[href]') YIELD element " +
+                  "RETURN element", map).resultAsString();
+        }
+
+        Result res = db.execute("CALL scraper.stats() YIELD value " +
+              "RETURN value.caches.selectors AS stats");
+
+        Map<String, Object> stats = (Map<String, Object>) res.next().get("stats");
+        assertTrue((Long) stats.get("misses") <= 1L);
+        assertTrue((Long) stats.get("hits") >= 2L);
+    }
+
+    @Test
+    public void shouldChangePolitenessSettings() {
+        Result res = db.execute("CALL scraper.politeness({burst: 7}) YIELD value RETURN value");
+        Map<String, Object> settings = (Map<String, Object>) res.next().get("value");
+        assertEquals(7L, settings.get("burst"));
+        assertTrue(settings.containsKey("requestsPerSecond"));
+
+        res = db.execute("CALL scraper.politeness() YIELD value RETURN value.burst AS burst");
+        assertEquals(7L, res.next().get("burst"));
+        db.execute("CALL scraper.politeness({burst: 5})").resultAsString();
+    }
+
+    @Test
+    public void shouldChangeArchiveSettings() throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("directory", Files.createTempDirectory("archive").toString());
+        Result res = db.execute("CALL scraper.archive({directory: {directory}, mode: 'replay'}) YIELD value " +
+              "RETURN value", params);
+        Map<String, Object> settings = (Map<String, Object>) res.next().get("value");
+        assertEquals("replay", settings.get("mode"));
+        assertEquals(0L, settings.get("pages"));
+
+        res = db.execute("CALL scraper.archive({mode: 'off'}) YIELD value RETURN value.mode AS mode");
+        assertEquals("off", res.next().get("mode"));
+    }
+
+    @Test
+    public void shouldFindNearDuplicateHtml() {
+        String html = "<p>Many pages we scrape are mirrors, print views or syndicated copies of each other.</p>" +
+              "<p>They should be skipped before they are written to the graph.</p>";
+        String copy = "<div>Share this</div>" + html.replace("graph.", "graph!");
+
+        Result res = db.execute("CALL scraper.fingerprintInHtml('" + html + "','',{index:'test', key:'first'}) " +
+              "YIELD duplicateOf RETURN duplicateOf");
+        assertEquals(null, res.next().get("duplicateOf"));
+
+        res = db.execute("CALL scraper.fingerprintInHtml('" + copy + "','p',{index:'test', key:'copy'}) " +
+              "YIELD duplicateOf, distance RETURN duplicateOf, distance");
+        Map<String, Object> row = res.next();
+        assertEquals("first", row.get("duplicateOf"));
+        assertEquals(0L, row.get("distance"));
+        db.execute("CALL scraper.clearFingerprints('test')").resultAsString();
+    }
+
+    @Test
+    public void shouldReturnCanonicalHrefInHtml() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", "<a href=\"HTTP://Example.com:80/a/./b?utm_source=news&z=1&a=2#top\">link</a>");
+
+        Result res = db.execute("CALL scraper.getLinksInHtml({html}) YIELD element " +
+              "RETURN element.attributes.`canonical:href` AS href", map);
+        assertEquals("http://example.com/a/b?a=2&z=1", res.next().get("href"));
+    }
+
+    @Test
+    public void shouldStreamSitemapEntriesInXml() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("xml", "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+              "<url><loc>https://example.com/new</loc><lastmod>2020-03-01</lastmod>" +
+              "<changefreq>daily</changefreq><priority>0.8</priority></url>" +
+              "<url><loc>https://example.com/old</loc><lastmod>2019-12-31</lastmod></url>" +
+              "</urlset>");
+
+        Result res = db.execute("CALL scraper.sitemapInXml({xml}, {since: '2020-01-01'}) " +
+              "YIELD loc, lastmod, changefreq, priority RETURN loc, lastmod, changefreq, priority", map);
+        Map<String, Object> row = res.next();
+        assertEquals("https://example.com/new", row.get("loc"));
+        assertEquals("2020-03-01", row.get("lastmod"));
+        assertEquals("daily", row.get("changefreq"));
+        assertEquals(0.8, row.get("priority"));
+        assertTrue(!res.hasNext());
+    }
+
+    @Test
+    public void shouldKeepSitemapEntriesWithEmptyOrInvalidValues() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("xml", "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+              "<url><loc>https://example.com/a</loc><priority/><lastmod>yesterday</lastmod></url>" +
+              "<url><loc>https://example.com/b</loc><priority>high</priority></url>" +
+              "</urlset>");
+
+        Result res = db.execute("CALL scraper.sitemapInXml({xml}, {since: '2020-01-01'}) " +
+              "YIELD loc, lastmod, priority RETURN loc, lastmod, priority", map);
+        Map<String, Object> row = res.next();
+        assertEquals("https://example.com/a", row.get("loc"));
+        assertEquals("yesterday", row.get("lastmod"));
+        assertEquals(null, row.get("priority"));
+        row = res.next();
+        assertEquals("https://example.com/b", row.get("loc"));
+        assertEquals(null, row.get("priority"));
+        assertTrue(!res.hasNext());
+    }
+
+    @Test
+    public void shouldReturnFetchErrorsAsRows() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", "http://localhost:1/missing");
+
+        Result res = db.execute("CALL scraper.select({url}, 'a', {retries: 1, backoff: 10}) " +
+              "YIELD element, error RETURN element, error", map);
+        Map<String, Object> row = res.next();
+        assertEquals(null, row.get("element"));
+        assertTrue(row.get("error") != null);
+        assertTrue(!res.hasNext());
+
+        boolean failed = false;
+        try {
+            db.execute("CALL scraper.count({url}, 'a', {failOnError: true}) YIELD value RETURN value", map).next();
+        } catch (RuntimeException e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    @Test
+    public void shouldReadTableRowsInHtml() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", "<table><thead><tr><th rowspan=\"2\">City</th><th colspan=\"2\">Population</th></tr>" +
+              "<tr><th>2010</th><th>2020</th></tr></thead>" +
+              "<tbody><tr><td rowspan=\"2\">Budapest</td><td>1.73</td><td>1.75</td></tr>" +
+              "<tr><td colspan=\"2\">unknown</td></tr></tbody></table>");
+
+        Result res = db.execute("CALL scraper.tablesInHtml({html}) YIELD table, row, value " +
+              "RETURN table, row, value", map);
+        Map<String, Object> row = res.next();
+        assertEquals(0L, row.get("table"));
+        Map<String, Object> value = (Map<String, Object>) row.get("value");
+        assertEquals("Budapest", value.get("City"));
+        assertEquals("1.73", value.get("Population / 2010"));
+        assertEquals("1.75", value.get("Population / 2020"));
+        row = res.next();
+        assertEquals(1L, row.get("row"));
+        value = (Map<String, Object>) row.get("value");
+        assertEquals("Budapest", value.get("City"));
+        assertEquals("unknown", value.get("Population / 2020"));
+        assertTrue(!res.hasNext());
+    }
+
+    @Test
+    public void shouldCollectMetadataInHtml() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", "<meta property=\"og:title\" content=\"Budapest\">" +
+              "<meta name=\"twitter:card\" content=\"summary\">" +
+              "<script type=\"application/ld+json\">{\"@type\": \"City\", \"population\": 1750000}</script>" +
+              "<div itemscope itemtype=\"https://schema.org/Place\"><span itemprop=\"name\">Budapest</span></div>");
+
+        Result res = db.execute("CALL scraper.metadataInHtml({html}) YIELD value RETURN value", map);
+        Map<String, Object> value = (Map<String, Object>) res.next().get("value");
+        assertEquals("Budapest", ((Map<String, Object>) value.get("openGraph")).get("og:title"));
+        assertEquals("summary", ((Map<String, Object>) value.get("twitter")).get("twitter:card"));
+        Map<String, Object> jsonLd = (Map<String, Object>) ((List<Object>) value.get("jsonLd")).get(0);
+        assertEquals(1750000L, jsonLd.get("population"));
+        Map<String, Object> item = (Map<String, Object>) ((List<Object>) value.get("microdata")).get(0);
+        assertEquals("https://schema.org/Place", item.get("@type"));
+        assertEquals("Budapest", item.get("name"));
+    }
+
+    @Test
+    public void shouldCountAndTestMatchesInHtml() {
+        String html = "<ul><li><a href=\"/a\">A</a></li><li><a href=\"/b\">B</a></li>" +
+              "<li><a href=\"/a\">A</a></li></ul>";
+
+        Result res = db.execute("CALL scraper.countInHtml('" + html + "','li a') YIELD value RETURN value");
+        assertEquals(3L, res.next().get("value"));
+
+        res = db.execute("CALL scraper.existsInHtml('" + html + "','table') YIELD value RETURN value");
+        assertEquals(false, res.next().get("value"));
+
+        res = db.execute("CALL scraper.distinctValuesInHtml('" + html + "','a','href') YIELD value RETURN value");
+        assertEquals("/a", res.next().get("value"));
+        assertEquals("/b", res.next().get("value"));
+        assertTrue(!res.hasNext());
+    }
+
     @Test
     public void shouldReturnMediaLinksUrl() {
         Map<String, Object> map = new HashMap<>();
@@ -186,6 +451,339 @@ public class ScraperTest {
               ".hu/images/branding/googlelogo/2x/googlelogo_color_120x44dp.png"), urls);
     }
 
+    @Test
+    public void shouldReturnOnlyProjectedFields() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", getTestHtml());
+        map.put("selector", "a[href]");
+        map.put("config", Collections.singletonMap("fields", Arrays.asList("text", "attributes")));
+
+        Result res = db.execute("CALL scraper.selectInHtml({html},{selector},{config}) " +
+                    "YIELD element RETURN keys(element) AS keys, element.text AS text",
+              map);
+
+        Map<String, Object> row = res.next();
+        assertEquals(new HashSet<>(Arrays.asList("text", "attributes")),
+              new HashSet<>((List<?>) row.get("keys")));
+        assertEquals("Index1", row.get("text"));
+    }
+
+    @Test
+    public void shouldExtractFieldsOfRowsInHtml() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("text", "a");
+        fields.put("url", "a@href");
+        fields.put("missing", "img@src");
+        Map<String, Object> map = new HashMap<>();
+        map.put("html", getTestHtml());
+        map.put("fields", fields);
+
+        Result res = db.execute("CALL scraper.extractInHtml({html},'li:has(a)',{fields}) " +
+                    "YIELD value RETURN value",
+              map);
+
+        Map<?, ?> row = (Map<?, ?>) res.next().get("value");
+        assertEquals("Index1", row.get("text"));
+        assertEquals("http://www.index.hu", row.get("url"));
+        assertEquals(null, row.get("missing"));
+        row = (Map<?, ?>) res.next().get("value");
+        assertEquals("Index2", row.get("text"));
+        assertTrue(!res.hasNext());
+    }
+
+    @Test
+    public void shouldFetchAllUrls() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("selector", "a[href]");
+        config.put("output", "elements");
+        Map<String, Object> map = new HashMap<>();
+        map.put("urls", Arrays.asList(testUrl, "http://localhost:1/missing"));
+        map.put("config", config);
+        db.execute("CALL scraper.clearCache()").close();
+
+        Result res = db.execute("CALL scraper.fetchAll({urls},{config}) YIELD url, status, " +
+                    "element, error RETURN url, status, element.attributes.`abs:href` AS href, error " +
+                    "ORDER BY url, href",
+              map);
+
+        Map<String, Object> row = res.next();
+        assertEquals("http://localhost:1/missing", row.get("url"));
+        assertTrue(row.get("error") != null);
+        assertEquals("http://www.index.hu", res.next().get("href"));
+        row = res.next();
+        assertEquals(200L, row.get("status"));
+        assertEquals("http://www.index2.hu", row.get("href"));
+        assertTrue(!res.hasNext());
+
+        // the page is in the cache now, its status is not known
+        map.put("urls", Collections.singletonList(testUrl));
+        res = db.execute("CALL scraper.fetchAll({urls},{config}) YIELD status, element " +
+              "RETURN status, element.attributes.`abs:href` AS href ORDER BY href", map);
+        row = res.next();
+        assertEquals(null, row.get("status"));
+        assertEquals("http://www.index.hu", row.get("href"));
+    }
+
+    @Test
+    public void shouldSelectFromAllUrls() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("urls", Arrays.asList(testUrl, "http://localhost:1/missing", testUrl));
+
+        Result res = db.execute("CALL scraper.selectAll({urls},'a[href]',{concurrency: 2, window: 1}) " +
+                    "YIELD element, error RETURN element.attributes.`abs:href` AS href, error ORDER BY href",
+              map);
+
+        List<Object> hrefs = new ArrayList<>();
+        List<Object> errors = new ArrayList<>();
+        while (res.hasNext()) {
+            Map<String, Object> row = res.next();
+            if (row.get("error") != null) {
+                errors.add(row.get("error"));
+            } else {
+                hrefs.add(row.get("href"));
+            }
+        }
+        assertEquals(Arrays.asList("http://www.index.hu", "http://www.index.hu",
+              "http://www.index2.hu", "http://www.index2.hu"), hrefs);
+        assertEquals(1, errors.size());
+        assertTrue(((String) errors.get(0)).startsWith("http://localhost:1/missing: "));
+
+        boolean failed = false;
+        try {
+            db.execute("CALL scraper.selectAll({urls},'a[href]',{failOnError: true}) YIELD element " +
+                  "RETURN count(*)", map).next();
+        } catch (RuntimeException e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    @Test
+    public void shouldRefreshStoredPages() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", testUrl);
+        db.execute("CREATE (:Stale {url: {url}}), (:Stale {name: 'no url'})", map).resultAsString();
+
+        Result res = db.execute("CALL scraper.refresh('Stale',{budget: 10}) " +
+              "YIELD candidates, pages, changed, errors RETURN candidates, pages, changed, errors");
+        Map<String, Object> row = res.next();
+        assertEquals(1L, row.get("candidates"));
+        assertEquals(1L, row.get("pages"));
+        assertEquals(0L, row.get("changed"));
+        assertEquals(0L, row.get("errors"));
+
+        res = db.execute("MATCH (p:Stale {url: {url}}) RETURN p.contentHash AS hash, p.checks AS checks, " +
+              "p.fetchedAt AS fetchedAt", map);
+        row = res.next();
+        assertTrue(row.get("hash") != null);
+        assertEquals(0L, row.get("checks"));
+        assertTrue(row.get("fetchedAt") != null);
+    }
+
+    @Test
+    public void shouldCrawlIntoGraph() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", testUrl);
+
+        Result res = db.execute("CALL scraper.crawl({url},{maxDepth:0, sameHost:false, " +
+                    "label:'CrawledPage'}) YIELD pages, nodes, relationships " +
+                    "RETURN pages, nodes, relationships",
+              map);
+
+        Map<String, Object> row = res.next();
+        assertEquals(1L, row.get("pages"));
+        assertEquals(3L, row.get("nodes"));
+        assertEquals(2L, row.get("relationships"));
+
+        res = db.execute("MATCH (:CrawledPage)-[:LINKS_TO]->(p:CrawledPage) " +
+              "RETURN p.url AS url ORDER BY url");
+        assertEquals("http://www.index.hu/", res.next().get("url"));
+        assertEquals("http://www.index2.hu/", res.next().get("url"));
+    }
+
+    @Test
+    public void shouldLoadLinksIntoGraph() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", testUrl);
+
+        Result res = db.execute("CALL scraper.loadLinks({url},{label:'LinkedPage'}) " +
+              "YIELD pages, errors, nodes, relationships RETURN pages, errors, nodes, relationships", map);
+        Map<String, Object> row = res.next();
+        assertEquals(1L, row.get("pages"));
+        assertEquals(0L, row.get("errors"));
+        assertEquals(3L, row.get("nodes"));
+        assertEquals(2L, row.get("relationships"));
+
+        res = db.execute("MATCH (p:LinkedPage {url: {url}})-[r:LINKS_TO]->(l:LinkedPage) " +
+              "RETURN l.url AS url, r.text AS text ORDER BY url", map);
+        row = res.next();
+        assertEquals("http://www.index.hu/", row.get("url"));
+        assertEquals("Index1", row.get("text"));
+        row = res.next();
+        assertEquals("http://www.index2.hu/", row.get("url"));
+        assertEquals("Index2", row.get("text"));
+        assertTrue(!res.hasNext());
+
+        res = db.execute("MATCH (p:LinkedPage) RETURN count(p) AS count");
+        assertEquals(3L, res.next().get("count"));
+    }
+
+    @Test
+    public void shouldCrawlFromTheHostTheSeedRedirectsTo() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/start")) {
+                exchange.getResponseHeaders().add("Location",
+                      "http://127.0.0.1:" + server.getAddress().getPort() + "/page");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = ("<title>" + path + "</title><a href=\"/other\">other</a>" +
+                  "<a href=\"http://localhost:" + server.getAddress().getPort() + "/away\">away</a>")
+                  .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(path.equals("/page") ? 203 : path.equals("/other") ? 200 : 404,
+                  body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            Map<String, Object> map = new HashMap<>();
+            map.put("url", "http://localhost:" + server.getAddress().getPort() + "/start");
+
+            Result res = db.execute("CALL scraper.crawl({url},{maxDepth:1, label:'RedirectedPage'}) " +
+                  "YIELD pages, errors RETURN pages, errors", map);
+            Map<String, Object> row = res.next();
+            assertEquals(2L, row.get("pages"));
+            assertEquals(0L, row.get("errors"));
+
+            res = db.execute("MATCH (p:RedirectedPage) WHERE exists(p.status) " +
+                  "RETURN p.url AS url, p.status AS status ORDER BY url");
+            row = res.next();
+            assertEquals(base + "/other", row.get("url"));
+            assertEquals(200L, row.get("status"));
+            row = res.next();
+            assertEquals(base + "/page", row.get("url"));
+            assertEquals(203L, row.get("status"));
+            assertTrue(!res.hasNext());
+
+            res = db.execute("MATCH (:RedirectedPage)-[r:LINKS_TO]->(l:RedirectedPage) RETURN l.url AS url");
+            assertEquals(base + "/other", res.next().get("url"));
+            // and the link of the other page to itself
+            assertEquals(base + "/other", res.next().get("url"));
+            assertTrue(!res.hasNext());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldLookUpUrlsCreatedOutsideThePlugin() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", testUrl);
+
+        Result res = db.execute("CALL scraper.loadLinks({url},{label:'OutsidePage', selector:'a:contains(Index1)'}) " +
+              "YIELD nodes RETURN nodes", map);
+        assertEquals(2L, res.next().get("nodes"));
+        db.execute("CREATE (:OutsidePage {url: 'http://www.index2.hu/'})").resultAsString();
+
+        res = db.execute("CALL scraper.loadLinks({url},{label:'OutsidePage', lookupUrls:true}) " +
+              "YIELD nodes, relationships RETURN nodes, relationships", map);
+        Map<String, Object> row = res.next();
+        assertEquals(0L, row.get("nodes"));
+        assertEquals(1L, row.get("relationships"));
+
+        res = db.execute("MATCH (p:OutsidePage) RETURN count(p) AS count");
+        assertEquals(3L, res.next().get("count"));
+    }
+
+    @Test
+    public void shouldNotDuplicateLinksWhenCrawlingAgain() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", testUrl);
+
+        String crawl = "CALL scraper.crawl({url},{maxDepth:0, sameHost:false, label:'RecrawledPage'}) " +
+              "YIELD relationships RETURN relationships";
+        assertEquals(2L, db.execute(crawl, map).next().get("relationships"));
+        assertEquals(0L, db.execute(crawl, map).next().get("relationships"));
+
+        Result res = db.execute("MATCH (:RecrawledPage)-[r:LINKS_TO]->(:RecrawledPage) RETURN count(r) AS count");
+        assertEquals(2L, res.next().get("count"));
+    }
+
+    @Test
+    public void shouldLoadElementsIntoGraph() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", testUrl);
+
+        Result res = db.execute("CALL scraper.loadElements({url},'a[href]'," +
+                    "{title:'text', href:'@abs:href'},{label:'Anchor', pageLabel:'AnchorPage', " +
+                    "batchSize:1}) YIELD nodes, relationships, batches " +
+                    "RETURN nodes, relationships, batches",
+              map);
+
+        Map<String, Object> row = res.next();
+        assertEquals(3L, row.get("nodes"));
+        assertEquals(2L, row.get("relationships"));
+        assertEquals(2L, row.get("batches"));
+
+        res = db.execute("MATCH (:AnchorPage)-[:HAS_ELEMENT]->(a:Anchor) " +
+              "RETURN a.title AS title, a.href AS href ORDER BY title");
+        row = res.next();
+        assertEquals("Index1", row.get("title"));
+        assertEquals("http://www.index.hu", row.get("href"));
+    }
+
+    @Test
+    public void shouldFetchUrlOnlyOnceForRepeatedCalls() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            // robots.txt is requested too
+            boolean page = exchange.getRequestURI().getPath().equals("/page");
+            if (page) {
+                requests.incrementAndGet();
+            }
+            byte[] body = "<a href=\"/other\">other</a><img src=\"/image.png\">"
+                  .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(page ? 200 : 404, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        try {
+            Map<String, Object> map = new HashMap<>();
+            map.put("url", "http://localhost:" + server.getAddress().getPort() + "/page");
+
+            db.execute("CALL scraper.clearCache()").resultAsString();
+            long misses = Scraper.DOCUMENT_CACHE.misses();
+
+            Result links = db.execute("CALL scraper.getLinks({url}) YIELD element RETURN element",
+                  map);
+            assertTrue(links.hasNext());
+            links.close();
+            Result media = db.execute("CALL scraper.getMediaLinks({url}) YIELD element RETURN element",
+                  map);
+            assertTrue(media.hasNext());
+            media.close();
+
+            assertEquals(misses + 1, Scraper.DOCUMENT_CACHE.misses());
+            assertEquals(1, Scraper.DOCUMENT_CACHE.size());
+            assertEquals(1, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
     private String getTestHtml() {
         StringBuilder contentBuilder = new StringBuilder();
         try {
@@ -0,0 +1,142 @@
+package scraper.archive;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scraper.http.BodyReader;
+import scraper.http.FetchOptions;
+import scraper.http.HttpFetcher;
+import scraper.metrics.Metrics;
+
+public class PageArchiveTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("page-archive");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldKeepTheLatestRecordWhenReopened() throws IOException {
+        // small segments, so that every record starts a new one
+        try (PageArchive archive = new PageArchive(directory, 100)) {
+            put(archive, "http://example.com/a", "first");
+            put(archive, "http://example.com/b", "other");
+            put(archive, "http://example.com/a", "second");
+
+            assertEquals("second", body(archive.get("http://example.com/a")));
+            assertEquals(2, archive.size());
+        }
+
+        try (PageArchive archive = new PageArchive(directory, 100)) {
+            ArchivedPage page = archive.get("HTTP://EXAMPLE.COM/a");
+            assertEquals("second", body(page));
+            assertEquals("http://example.com/a/", page.url());
+            assertEquals(200, page.status());
+            assertEquals(1000L, page.fetchedAt());
+            assertEquals(Collections.singletonList("\"second\""), page.headers().get("ETag"));
+            assertEquals("other", body(archive.get("http://example.com/b")));
+            assertEquals(null, archive.get("http://example.com/c"));
+
+            put(archive, "http://example.com/c", "third");
+        }
+
+        try (PageArchive archive = new PageArchive(directory, 100)) {
+            assertEquals(3, archive.size());
+            assertEquals("third", body(archive.get("http://example.com/c")));
+        }
+    }
+
+    @Test
+    public void shouldReplayRecordedPages() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            // robots.txt is requested too
+            boolean page = exchange.getRequestURI().getPath().equals("/page");
+            if (page) {
+                requests.incrementAndGet();
+            }
+            byte[] body = "<p>recorded</p>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(page ? 200 : 404, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/page";
+
+        ArchivingFetcher fetcher = new ArchivingFetcher(new HttpFetcher(new Metrics()));
+        FetchOptions options = new FetchOptions();
+        try {
+            fetcher.configure(settings("record"));
+            assertEquals("<p>recorded</p>", BodyReader.read(fetcher.fetch(url, options), 0));
+            assertEquals(1, requests.get());
+        } finally {
+            server.stop(0);
+        }
+
+        fetcher.configure(settings("replay"));
+        assertEquals("<p>recorded</p>", BodyReader.read(fetcher.fetch(url, options), 0));
+        assertEquals(1, requests.get());
+        assertEquals(1L, fetcher.hits());
+
+        try {
+            fetcher.fetch(url.replace("/page", "/missing"), options);
+            throw new AssertionError("A page missing from the archive was replayed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not in the page archive"));
+        }
+        assertEquals(1, requests.get());
+        assertEquals(2L, fetcher.misses());
+
+        // closes the archive
+        Map<String, Object> off = settings("off");
+        off.put("directory", null);
+        fetcher.configure(off);
+    }
+
+    private Map<String, Object> settings(String mode) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("mode", mode);
+        settings.put("directory", directory.toString());
+        return settings;
+    }
+
+    private static void put(PageArchive archive, String url, String body) throws IOException {
+        Map<String, List<String>> headers = Collections.singletonMap("ETag",
+              Collections.singletonList("\"" + body + "\""));
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        archive.put(url, url + "/", 200, 1000L, headers, bytes, bytes.length);
+    }
+
+    private static String body(ArchivedPage page) throws IOException {
+        return BodyReader.read(page.response(), 0);
+    }
+}
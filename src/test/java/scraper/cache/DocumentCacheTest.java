@@ -0,0 +1,61 @@
+package scraper.cache;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+public class DocumentCacheTest {
+
+    private static final String URL = "http://example.com/page";
+
+    @Test
+    public void shouldLoadConcurrentMissesOnce() throws Exception {
+        DocumentCache cache = new DocumentCache(1024 * 1024, 60_000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DocumentCache.Loader loader = url -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return Jsoup.parse("<p>page</p>", url);
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Document> first = pool.submit(() -> cache.get(URL, loader));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<Document> second = pool.submit(() -> cache.get(URL, loader));
+            while (cache.waits() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertTrue(first.get(5, TimeUnit.SECONDS) == second.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.misses());
+        assertEquals(1L, cache.waits());
+        assertEquals(0L, cache.hits());
+
+        cache.get(URL, loader);
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.hits());
+    }
+}
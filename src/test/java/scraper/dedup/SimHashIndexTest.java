@@ -0,0 +1,44 @@
+package scraper.dedup;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SimHashIndexTest {
+
+    @Test
+    public void shouldFindWithinALargerDistanceThanTheIndexWasBuiltFor() {
+        SimHashIndex index = new SimHashIndex(3);
+        index.add("a", 0L);
+        index.add("b", -1L);
+        // five bits apart from a, spread over the bands of a distance of 3
+        long fingerprint = 1L | 1L << 13 | 1L << 27 | 1L << 41 | 1L << 55;
+
+        assertEquals(null, index.find(fingerprint, 3));
+        SimHashIndex.Match match = index.find(fingerprint, 5);
+        assertEquals("a", match.key);
+        assertEquals(5, match.distance);
+        assertEquals(5, index.maxDistance());
+
+        assertEquals("b", index.find(-1L, 0).key);
+        assertEquals(null, index.findOrAdd("c", fingerprint, 4));
+        assertEquals("c", index.find(fingerprint, 2).key);
+        assertEquals(3, index.size());
+        assertEquals(5, index.maxDistance());
+    }
+
+    @Test
+    public void shouldRejectDistancesOutOfRange() {
+        SimHashIndex index = new SimHashIndex(3);
+        for (int distance : new int[]{-1, SimHashIndex.MAX_DISTANCE + 1}) {
+            try {
+                index.find(0L, distance);
+                throw new AssertionError("The distance " + distance + " was accepted");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("between 0 and " + SimHashIndex.MAX_DISTANCE));
+            }
+        }
+        assertEquals(null, index.find(0L, SimHashIndex.MAX_DISTANCE));
+    }
+}
@@ -0,0 +1,121 @@
+package scraper.http;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class BodyReaderTest {
+
+    private static final String URL = "http://example.com/";
+
+    @Test
+    public void shouldPreferTheHeaderCharset() throws IOException {
+        byte[] body = "<meta charset=\"windows-1250\"><p>\u00e1rv\u00edzt\u0171r\u0151</p>"
+              .getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("<meta charset=\"windows-1250\"><p>\u00e1rv\u00edzt\u0171r\u0151</p>",
+              BodyReader.read(response("text/html; charset=UTF-8", body), 0));
+    }
+
+    @Test
+    public void shouldUseTheByteOrderMarkBeforeTheMetaTag() throws IOException {
+        byte[] text = "<meta charset=\"windows-1250\"><p>\u0151</p>".getBytes(StandardCharsets.UTF_16LE);
+        byte[] body = concat(new byte[]{(byte) 0xff, (byte) 0xfe}, text);
+
+        assertEquals("<meta charset=\"windows-1250\"><p>\u0151</p>",
+              BodyReader.read(response("text/html", body), 0));
+    }
+
+    @Test
+    public void shouldUseTheMetaCharset() throws IOException {
+        byte[] body = "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1250\"><p>\u0151</p>"
+              .getBytes(Charset.forName("windows-1250"));
+
+        assertEquals(Charset.forName("windows-1250"), BodyReader.charset(body, body.length, null));
+        assertTrue(BodyReader.read(response(null, body), 0).endsWith("<p>\u0151</p>"));
+    }
+
+    @Test
+    public void shouldDefaultToUtf8() throws IOException {
+        byte[] body = "<meta charset=\"no-such-charset\"><p>\u0151</p>".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(StandardCharsets.UTF_8, BodyReader.charset(body, body.length, null));
+        assertEquals(StandardCharsets.UTF_8, BodyReader.charset(new byte[0], 0, null));
+    }
+
+    @Test
+    public void shouldReadABodyOfTheMaximumSize() throws IOException {
+        byte[] body = new byte[200_000];
+        Arrays.fill(body, (byte) 'a');
+
+        assertEquals(body.length, BodyReader.read(response(null, body), body.length).length());
+        assertEquals(body.length, count(BodyReader.buffer(response(null, body), body.length).body()));
+        assertEquals(body.length, count(BodyReader.limit(new ByteArrayInputStream(body), body.length, URL)));
+    }
+
+    @Test
+    public void shouldAbortABodyLargerThanTheMaximum() throws IOException {
+        byte[] body = new byte[200_001];
+
+        assertTooLarge(() -> BodyReader.read(response(null, body), body.length - 1));
+        assertTooLarge(() -> BodyReader.buffer(response(null, body), body.length - 1));
+        assertTooLarge(() -> count(BodyReader.limit(new ByteArrayInputStream(body), body.length - 1, URL)));
+    }
+
+    @Test
+    public void shouldGrowTheBufferUpToTheLimit() throws IOException {
+        assertEquals(128 * 1024, BodyReader.grownSize(64 * 1024, 0, URL));
+        assertEquals(100_001, BodyReader.grownSize(64 * 1024, 100_000, URL));
+        assertEquals(Integer.MAX_VALUE - 8, BodyReader.grownSize(1 << 30, 0, URL));
+        assertTooLarge(() -> BodyReader.grownSize(Integer.MAX_VALUE - 8, 0, URL));
+    }
+
+    private interface Read {
+        Object read() throws IOException;
+    }
+
+    private static void assertTooLarge(Read read) {
+        try {
+            read.read();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("larger than the maximum"));
+            return;
+        }
+        throw new AssertionError("The body was read");
+    }
+
+    private static HttpResponse response(String contentType, byte[] body) {
+        Map<String, List<String>> headers = contentType == null
+              ? Collections.<String, List<String>>emptyMap()
+              : Collections.singletonMap("Content-Type", Collections.singletonList(contentType));
+        return new HttpResponse(URL, 200, headers, new ByteArrayInputStream(body));
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first, 0, first.length);
+        out.write(second, 0, second.length);
+        return out.toByteArray();
+    }
+
+    private static int count(InputStream in) throws IOException {
+        int count = 0;
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            count += read;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,121 @@
+package scraper.http;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final String HOST = "example.com";
+    private static final long OPEN_MILLIS = 50;
+
+    @Test
+    public void shouldOpenAfterFailuresInARow() throws Exception {
+        CircuitBreaker breaker = breaker(3);
+
+        breaker.failure(HOST);
+        breaker.failure(HOST);
+        breaker.success(HOST);
+        breaker.failure(HOST);
+        breaker.failure(HOST);
+        // the success reset the count
+        assertTrue(!breaker.isOpen(HOST));
+        breaker.check(HOST);
+
+        breaker.failure(HOST);
+        assertTrue(breaker.isOpen(HOST));
+        assertUnavailable(breaker);
+        assertEquals(Collections.singletonList(HOST), breaker.settings().get("openHosts"));
+        // other hosts are not affected
+        breaker.check("other.com");
+    }
+
+    @Test
+    public void shouldLetOneProbeThroughAndCloseWhenItSucceeds() throws Exception {
+        CircuitBreaker breaker = open();
+
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.check(HOST);
+        // the probe is under way
+        assertUnavailable(breaker);
+
+        breaker.success(HOST);
+        assertTrue(!breaker.isOpen(HOST));
+        breaker.check(HOST);
+        breaker.check(HOST);
+    }
+
+    @Test
+    public void shouldOpenAgainWhenTheProbeFails() throws Exception {
+        CircuitBreaker breaker = open();
+
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.check(HOST);
+        // one failure is enough in half open
+        breaker.failure(HOST);
+
+        assertTrue(breaker.isOpen(HOST));
+        assertUnavailable(breaker);
+    }
+
+    @Test
+    public void shouldReplaceAProbeThatNeverReportsBack() throws Exception {
+        CircuitBreaker breaker = open();
+
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.check(HOST);
+        assertUnavailable(breaker);
+
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.check(HOST);
+        assertUnavailable(breaker);
+    }
+
+    @Test
+    public void shouldCloseOnRequestOrWhenTurnedOff() throws Exception {
+        CircuitBreaker breaker = open();
+
+        breaker.configure(Collections.<String, Object>singletonMap("closeBreakers", true));
+        assertTrue(!breaker.isOpen(HOST));
+        breaker.check(HOST);
+
+        breaker = open();
+        breaker.configure(Collections.<String, Object>singletonMap("failureThreshold", 0));
+        breaker.check(HOST);
+        for (int i = 0; i < 10; i++) {
+            breaker.failure(HOST);
+        }
+        breaker.check(HOST);
+    }
+
+    private static CircuitBreaker open() {
+        CircuitBreaker breaker = breaker(2);
+        breaker.failure(HOST);
+        breaker.failure(HOST);
+        assertTrue(breaker.isOpen(HOST));
+        return breaker;
+    }
+
+    private static CircuitBreaker breaker(int failureThreshold) {
+        CircuitBreaker breaker = new CircuitBreaker();
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("failureThreshold", failureThreshold);
+        settings.put("openMillis", OPEN_MILLIS);
+        breaker.configure(settings);
+        return breaker;
+    }
+
+    private static void assertUnavailable(CircuitBreaker breaker) {
+        try {
+            breaker.check(HOST);
+        } catch (HostUnavailableException e) {
+            assertEquals(HOST, e.host());
+            return;
+        }
+        throw new AssertionError("The request was let through");
+    }
+}
@@ -0,0 +1,133 @@
+package scraper.http;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class HostGovernorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void shouldReadTheCrawlDelayOfTheAgentGroup() {
+        String robots = "User-agent: *\n" +
+              "Disallow: /private\n" +
+              "Crawl-delay: 2\n" +
+              "\n" +
+              "# the scraper gets its own group\n" +
+              "User-agent: OtherBot\n" +
+              "User-agent: Scraper\n" +
+              "Crawl-delay: 0.5 # seconds\n" +
+              "\r\n" +
+              "User-agent: BrokenBot\r\n" +
+              "Crawl-delay: soon\r\n";
+
+        assertEquals(0.5, HostGovernor.crawlDelay(robots, "Mozilla/5.0 (compatible; Scraper/1.0)"), 0);
+        assertEquals(0.5, HostGovernor.crawlDelay(robots, "otherbot"), 0);
+        assertEquals(2.0, HostGovernor.crawlDelay(robots, "Mozilla"), 0);
+        assertEquals(2.0, HostGovernor.crawlDelay(robots, "BrokenBot"), 0);
+        assertEquals(0.0, HostGovernor.crawlDelay("User-agent: Scraper\nCrawl-delay: 3", "Mozilla"), 0);
+        assertEquals(0.0, HostGovernor.crawlDelay("", "Mozilla"), 0);
+    }
+
+    @Test
+    public void shouldReadRetryAfterInSecondsOrAsDate() {
+        assertEquals(120_000L, HostGovernor.retryAfterMillis(" 120 "));
+        assertEquals(0L, HostGovernor.retryAfterMillis(null));
+        assertEquals(0L, HostGovernor.retryAfterMillis("later"));
+
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(2));
+        long millis = HostGovernor.retryAfterMillis(date);
+        assertTrue("" + millis, millis > 100_000 && millis <= 120_000);
+        date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(2));
+        assertTrue(HostGovernor.retryAfterMillis(date) < 0);
+    }
+
+    @Test
+    public void shouldSpaceStartsAtTheRateAfterABurst() {
+        HostGovernor governor = governor(10, 2);
+        HostGovernor.Host host = governor.new Host();
+        long now = System.nanoTime();
+
+        assertEquals(0L, host.reserve(now));
+        assertEquals(0L, host.reserve(now));
+        assertEquals(SECOND / 10, host.reserve(now));
+        assertEquals(2 * SECOND / 10, host.reserve(now));
+        // a caller arriving later waits for the slots reserved before it
+        assertEquals(2 * SECOND / 10, host.reserve(now + SECOND / 10));
+    }
+
+    @Test
+    public void shouldWaitForABlockAndTheCrawlDelay() {
+        HostGovernor governor = governor(10, 5);
+        HostGovernor.Host host = governor.new Host();
+        long now = System.nanoTime();
+
+        host.block(now + 3 * SECOND);
+        assertEquals(3 * SECOND, host.reserve(now));
+
+        host = governor.new Host();
+        host.crawlDelayNanos = 2 * SECOND;
+        now = System.nanoTime();
+        // the crawl-delay allows no burst
+        assertEquals(0L, host.reserve(now));
+        assertEquals(2 * SECOND, host.reserve(now));
+    }
+
+    @Test
+    public void shouldReadRobotsWithTheOptionsOfTheRequest() throws Exception {
+        List<FetchOptions> loaded = new ArrayList<>();
+        HostGovernor governor = new HostGovernor((url, options) -> {
+            loaded.add(options);
+            return "User-agent: *\nCrawl-delay: 1";
+        });
+        FetchOptions options = new FetchOptions().userAgent("Scraper").timeout(250);
+
+        governor.acquire("example.com", "http://example.com/robots.txt", options).release();
+        governor.acquire("example.com", "http://example.com/robots.txt", new FetchOptions()).release();
+
+        assertEquals(1, loaded.size());
+        assertEquals("Scraper", loaded.get(0).userAgent());
+        assertEquals(250, loaded.get(0).readTimeout());
+    }
+
+    @Test
+    public void shouldReadSettingsGivenAsStrings() {
+        HostGovernor governor = new HostGovernor((url, options) -> null);
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("robots", "false");
+        settings.put("maxInFlight", "2");
+        settings.put("requestsPerSecond", "0.5");
+        governor.configure(settings);
+
+        assertEquals(false, governor.settings().get("robots"));
+        assertEquals(2L, governor.settings().get("maxInFlight"));
+        assertEquals(0.5, governor.settings().get("requestsPerSecond"));
+
+        try {
+            governor.configure(Collections.<String, Object>singletonMap("burst", "many"));
+            throw new AssertionError("A burst that is not a number was accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("burst must be a number, not many", e.getMessage());
+        }
+    }
+
+    private static HostGovernor governor(double requestsPerSecond, int burst) {
+        HostGovernor governor = new HostGovernor((url, options) -> null);
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("requestsPerSecond", requestsPerSecond);
+        settings.put("burst", burst);
+        governor.configure(settings);
+        return governor;
+    }
+}
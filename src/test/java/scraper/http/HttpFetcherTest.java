@@ -0,0 +1,133 @@
+package scraper.http;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scraper.metrics.Metrics;
+
+public class HttpFetcherTest {
+
+    private static final String BODY = "<html><body><p>decoded</p></body></html>";
+
+    private static HttpServer server;
+    private static String base;
+    private static final HttpFetcher fetcher = new HttpFetcher(new Metrics());
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            switch (path) {
+                case "/plain":
+                    send(exchange, null, BODY.getBytes(StandardCharsets.UTF_8));
+                    break;
+                case "/gzip":
+                    send(exchange, "gzip", gzip(BODY));
+                    break;
+                case "/deflate":
+                    send(exchange, "deflate", deflate(BODY, false));
+                    break;
+                case "/raw-deflate":
+                    send(exchange, "deflate", deflate(BODY, true));
+                    break;
+                case "/redirect":
+                    redirect(exchange, "/gzip");
+                    break;
+                case "/loop":
+                    redirect(exchange, "/loop");
+                    break;
+                default:
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+            }
+        });
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldDecodeCompressedBodies() throws IOException {
+        for (String path : new String[]{"/plain", "/gzip", "/deflate", "/raw-deflate"}) {
+            HttpResponse response = fetcher.fetch(base + path, new FetchOptions());
+            assertEquals(path, 200, response.status());
+            assertEquals(path, BODY, BodyReader.read(response, 0));
+        }
+    }
+
+    @Test
+    public void shouldDecodeEmptyBodies() throws IOException {
+        assertEquals(-1, HttpFetcher.decode(new ByteArrayInputStream(new byte[0]), "deflate").read());
+        assertEquals(-1, HttpFetcher.decode(new ByteArrayInputStream(new byte[0]), "identity").read());
+    }
+
+    @Test
+    public void shouldFollowRedirects() throws IOException {
+        HttpResponse response = fetcher.fetch(base + "/redirect", new FetchOptions());
+
+        assertEquals(base + "/gzip", response.url());
+        assertEquals(BODY, BodyReader.read(response, 0));
+    }
+
+    @Test
+    public void shouldStopAfterTooManyRedirects() {
+        try {
+            fetcher.fetch(base + "/loop", new FetchOptions().maxRedirects(3)).close();
+            throw new AssertionError("The redirect loop was followed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Too many redirects"));
+        }
+    }
+
+    private static void send(HttpExchange exchange, String encoding, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+        if (encoding != null) {
+            exchange.getResponseHeaders().add("Content-Encoding", encoding);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void redirect(HttpExchange exchange, String location) throws IOException {
+        exchange.getResponseHeaders().add("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(String text, boolean raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
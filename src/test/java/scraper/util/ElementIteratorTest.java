@@ -0,0 +1,68 @@
+package scraper.util;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+import org.junit.Test;
+
+public class ElementIteratorTest {
+
+    private static final Document DOC = Jsoup.parse("<html><head><title>t</title></head><body>" +
+          "<div id=\"a\" class=\"x\"><p>one <a href=\"/1\">1</a></p><p class=\"x\">two</p></div>" +
+          "<ul><li><a href=\"/2\">2</a></li><li class=\"x\"><a>3</a></li></ul>" +
+          "<div class=\"x\"><div><span class=\"x\">deep</span></div></div><p>last</p></body></html>",
+          "http://example.com/");
+
+    @Test
+    public void shouldMatchLikeSelect() {
+        for (String selector : Arrays.asList("*", "p", ".x", "div > p", "a[href]", "li:nth-child(2) a",
+              "div .x", "#a p.x, span", "body > *", "nothing")) {
+            List<Element> lazy = new ArrayList<>();
+            new ElementIterator(DOC, Selectors.select(selector)).forEachRemaining(lazy::add);
+            assertEquals(selector, DOC.select(selector), lazy);
+        }
+        Element div = DOC.getElementById("a");
+        assertEquals(div.select("*"), ElementIterator.stream(div, Selectors.allElements())
+              .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void shouldStopWalkingAtTheLimit() {
+        CountingEvaluator evaluator = new CountingEvaluator(Selectors.select("p"));
+
+        List<Element> first = ElementIterator.stream(DOC, evaluator).limit(1).collect(Collectors.toList());
+
+        assertEquals(1, first.size());
+        assertEquals(DOC.select("p").first(), first.get(0));
+        // the walk stops at the second match, found ahead of the first one being taken
+        assertEquals(DOC.getAllElements().indexOf(DOC.select("p").get(1)) + 1, evaluator.calls);
+        assertTrue(evaluator.calls < DOC.getAllElements().size());
+
+        evaluator.calls = 0;
+        assertEquals(DOC.select("p").size(), ElementIterator.stream(DOC, evaluator).count());
+        assertEquals(DOC.getAllElements().size(), evaluator.calls);
+    }
+
+    private static class CountingEvaluator extends Evaluator {
+        private final Evaluator evaluator;
+        int calls = 0;
+
+        CountingEvaluator(Evaluator evaluator) {
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        public boolean matches(Element root, Element element) {
+            calls++;
+            return evaluator.matches(root, element);
+        }
+    }
+}